@@ -0,0 +1,486 @@
+package easydao;
+
+import easydao.utils.Action1;
+import easydao.utils.FXUtils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 数据库连接池
+ * 空闲连接保存在无锁双端队列中，借出的连接总数由信号量限制，获取连接不需要全局锁。
+ * 借出的连接是代理对象，关闭时归还连接池，物理连接可以被重复使用。
+ *
+ * @author ryu
+ */
+class ConnectionPool {
+
+    /**
+     * 池中的物理连接
+     */
+    static class PoolledConnection {
+        /**
+         * 最近一次归还的时间
+         */
+        public long time;
+        /**
+         * 创建时间
+         */
+        public long created;
+        /**
+         * 最近一次确认连接有效的时间
+         */
+        public long validated;
+        public Connection connection;
+        /**
+         * 创建连接时的事务隔离级别，归还时恢复
+         */
+        public int isolation;
+        /**
+         * 借出期间创建的Statement，归还时关闭
+         */
+        final ArrayList<Statement> statements = new ArrayList<>();
+        /**
+         * PreparedStatement缓存
+         */
+        public StatementCache statementCache;
+
+        /**
+         * 准备PreparedStatement，优先使用缓存
+         */
+        public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+            return statementCache.prepare(sql, resultSetType, resultSetConcurrency);
+        }
+    }
+
+    /**
+     * 借出的连接代理。
+     * 调用close()时不关闭物理连接，而是重置连接状态后归还连接池。
+     */
+    class PoolledConnectionHandler implements InvocationHandler {
+
+        private final PoolledConnection pc;
+        private volatile boolean closed = false;
+
+        PoolledConnectionHandler(PoolledConnection pc) {
+            this.pc = pc;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        release(pc);
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || pc.connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PoolledConnection@" + pc.connection;
+            }
+
+            if (closed) {
+                throw new SQLException("连接已归还连接池");
+            }
+
+            Object result;
+            if (method.getName().equals("prepareStatement") && args.length == 1) {
+                result = pc.prepareStatement((String) args[0], ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            } else if (method.getName().equals("prepareStatement") && args.length == 3 && method.getParameterTypes()[1] == int.class) {
+                result = pc.prepareStatement((String) args[0], (int) args[1], (int) args[2]);
+            } else {
+                try {
+                    result = method.invoke(pc.connection, args);
+                } catch (InvocationTargetException ex) {
+                    throw ex.getCause();
+                }
+            }
+
+            if (result instanceof Statement) {
+                if (pc.statements.size() >= 64) {
+                    //事务中执行大量sql时，及时移除已关闭的Statement
+                    pc.statements.removeIf(stmt -> isClosed(stmt));
+                }
+                pc.statements.add((Statement) result);
+            }
+            return result;
+        }
+    }
+
+    private static boolean isClosed(Statement stmt) {
+        try {
+            return stmt.isClosed();
+        } catch (SQLException ex) {
+            return true;
+        }
+    }
+
+    /**
+     * 连接字符串
+     */
+    final String connStr;
+
+    /**
+     * 连接池配置
+     */
+    final PoolConfig config;
+
+    /**
+     * 连接池大小控制器
+     */
+    final PoolSizer sizer;
+
+    /**
+     * 新连接放入连接池或借出前执行的初始化操作，比如准备常用的sql，可以为null。
+     * 无论连接由维护线程补充还是获取连接时创建都会执行，初始化失败不影响使用连接。
+     */
+    volatile Action1<PoolledConnection> init = null;
+
+    /**
+     * 并行创建连接的线程，是守护线程，空闲时自动结束
+     */
+    private static final ExecutorService opener = Executors.newCachedThreadPool(r -> {
+        var thread = new Thread(r, "easydao-pool-open");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ConcurrentLinkedDeque<PoolledConnection> idle = new ConcurrentLinkedDeque<>();
+    private final Semaphore permits;
+    private final ReentrantLock maintainLock = new ReentrantLock();
+    private ScheduledExecutorService scheduler = null;
+    private ScheduledFuture<?> maintenance = null;
+    private volatile boolean closed = false;
+
+    ConnectionPool(String connStr, PoolConfig config) {
+        config.validate();
+        this.connStr = connStr;
+        this.config = config;
+        this.sizer = new PoolSizer(config.minSize, config.maxSize);
+        this.permits = new Semaphore(config.maxSize);
+    }
+
+    /**
+     * 开始定期维护连接池
+     * @param scheduler 维护线程
+     * @param periodMs 维护间隔毫秒数
+     */
+    void start(ScheduledExecutorService scheduler, long periodMs) {
+        this.scheduler = scheduler;
+        maintenance = scheduler.scheduleWithFixedDelay(this::tryMaintain, 0, periodMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void tryMaintain() {
+        try {
+            maintain();
+        } catch (Exception ex) {
+            FXUtils.debug(ConnectionPool.class, "连接池维护出错：" + ex);
+        }
+    }
+
+    /**
+     * 关闭连接池：停止维护并关闭空闲连接，借出的连接在归还时关闭。
+     */
+    void close() {
+        closed = true;
+        if (maintenance != null) {
+            maintenance.cancel(false);
+        }
+        PoolledConnection pc;
+        while ((pc = idle.pollFirst()) != null) {
+            var conn = pc.connection;
+            FXUtils.tryInvoke(() -> conn.close());
+        }
+    }
+
+    /**
+     * 从池中获取连接。
+     * 借出的连接数达到上限时等待其它连接归还，超过等待时间则抛出异常。
+     * 空闲较久的连接借出前先检查是否有效，池中没有有效的空闲连接时直接创建新连接。
+     * @return
+     * @throws Exception
+     */
+    Connection acquire() throws Exception {
+        var start = System.nanoTime();
+        var timeoutMs = config.acquireTimeoutMs;
+        if (!permits.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS)) {
+            sizer.recordAcquire(System.nanoTime() - start, false, borrowedCount());
+            throw new SQLException(String.format("等待数据库连接超时(%dms)：%s", timeoutMs, connStr.split("\\?")[0]));
+        }
+
+        try {
+            PoolledConnection pc;
+            while ((pc = idle.pollFirst()) != null && !isAlive(pc, System.currentTimeMillis())) {
+                FXUtils.tryInvoke(pc.connection::close);
+            }
+
+            var opened = pc == null;
+            if (opened) {
+                pc = open();
+            }
+            sizer.recordAcquire(System.nanoTime() - start, opened, borrowedCount());
+
+            var result = (Connection) Proxy.newProxyInstance(
+                    ConnectionPool.class.getClassLoader(),
+                    new Class<?>[]{Connection.class},
+                    new PoolledConnectionHandler(pc));
+            pc.statementCache.setOwner(result);
+            return result;
+        } catch (Exception ex) {
+            permits.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * 检查空闲连接是否可以借出
+     */
+    private boolean isAlive(PoolledConnection pc, long now) {
+        if (isExpired(pc, now)) {
+            return false;
+        }
+        if (now - pc.time <= config.validateIdleMs) {
+            return true;
+        }
+        return validate(pc);
+    }
+
+    private boolean isExpired(PoolledConnection pc, long now) {
+        return config.maxLifetimeMs > 0 && now - pc.created > config.maxLifetimeMs;
+    }
+
+    private boolean validate(PoolledConnection pc) {
+        try {
+            return pc.connection.isValid(config.validationTimeoutSeconds);
+        } catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    private PoolledConnection open() throws SQLException {
+        var pc = new PoolledConnection();
+        pc.connection = DriverManager.getConnection(connStr);
+        pc.isolation = pc.connection.getTransactionIsolation();
+        pc.statementCache = new StatementCache(pc.connection, config.statementCacheSize);
+        pc.created = pc.time = pc.validated = System.currentTimeMillis();
+
+        var init = this.init;
+        if (init != null) {
+            try {
+                init.invoke(pc);
+            } catch (Exception ex) {
+                FXUtils.debug(ConnectionPool.class, "连接初始化失败：" + ex);
+            }
+        }
+        return pc;
+    }
+
+    /**
+     * 归还借出的连接。
+     * 关闭借出期间未关闭的Statement，回滚未提交的事务，恢复自动提交和隔离级别。
+     * 重置失败或超过最长使用时间的连接直接关闭，不再放回池中。
+     * @param pc
+     */
+    private void release(PoolledConnection pc) {
+        try {
+            var conn = pc.connection;
+            for (var stmt : pc.statements) {
+                FXUtils.tryInvoke(() -> stmt.close());
+            }
+            pc.statements.clear();
+
+            pc.time = pc.validated = System.currentTimeMillis();
+            if (closed || isExpired(pc, pc.time)) {
+                conn.close();
+                return;
+            }
+
+            if (!conn.getAutoCommit()) {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+            if (conn.getTransactionIsolation() != pc.isolation) {
+                conn.setTransactionIsolation(pc.isolation);
+            }
+            if (conn.isReadOnly()) {
+                conn.setReadOnly(false);
+            }
+            conn.clearWarnings();
+
+            idle.offerFirst(pc);
+        } catch (SQLException ex) {
+            FXUtils.tryInvoke(() -> pc.connection.close());
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * 空闲连接数量
+     * @return
+     */
+    int idleCount() {
+        return idle.size();
+    }
+
+    /**
+     * 借出的连接数量
+     * @return
+     */
+    int borrowedCount() {
+        return config.maxSize - permits.availablePermits();
+    }
+
+    /**
+     * 预热连接池：立即执行一次维护并行补充池中连接，等待池中连接数达到最小连接数或超时。
+     * 连接只由维护过程创建，不会与定期维护同时补充而超出目标大小。
+     * @param timeoutMs 等待超时毫秒数
+     * @return 是否在超时前完成预热
+     * @throws InterruptedException
+     */
+    boolean warmUp(long timeoutMs) throws InterruptedException {
+        if (borrowedCount() + idle.size() >= config.minSize) {
+            return true;
+        }
+
+        try {
+            scheduler.execute(this::tryMaintain);
+        } catch (RejectedExecutionException ex) {
+            //维护线程已关闭，在当前线程维护
+            tryMaintain();
+        }
+
+        var deadline = System.currentTimeMillis() + timeoutMs;
+        while (borrowedCount() + idle.size() < config.minSize) {
+            var remaining = deadline - System.currentTimeMillis();
+            if (closed || remaining <= 0) {
+                return false;
+            }
+            Thread.sleep(Math.min(10, remaining));
+        }
+        return true;
+    }
+
+    /**
+     * 维护连接池：根据测量结果更新目标大小，关闭超出目标大小的空闲连接和过期、失效的空闲连接，并补充池中连接。
+     * 需要检查的连接先从队列中取出，不会被同时借出，维护过程不阻塞获取连接的线程。
+     * 同时只有一个线程维护，已经在维护时直接返回。
+     */
+    void maintain() {
+        if (closed || !maintainLock.tryLock()) {
+            return;
+        }
+        try {
+            maintainLocked();
+        } finally {
+            maintainLock.unlock();
+        }
+    }
+
+    private void maintainLocked() {
+        var now = System.currentTimeMillis();
+        var borrowed = borrowedCount();
+        var target = sizer.update(borrowed);
+
+        //超出目标大小的连接从队列尾部（最久未使用）开始关闭
+        var surplus = borrowed + idle.size() - target;
+        var alive = new ArrayList<PoolledConnection>();
+        for (var it = idle.descendingIterator(); it.hasNext(); ) {
+            var pc = it.next();
+            var timeout = surplus > 0 && config.idleTimeoutMs > 0 && now - pc.time > config.idleTimeoutMs;
+            var expired = isExpired(pc, now);
+            var keepalive = config.keepaliveMs > 0 && now - pc.validated > config.keepaliveMs;
+            if (!(timeout || expired || keepalive) || !idle.removeFirstOccurrence(pc)) {
+                continue;
+            }
+
+            if (timeout || expired || !validate(pc)) {
+                FXUtils.tryInvoke(() -> pc.connection.close());
+                surplus--;
+                continue;
+            }
+
+            pc.validated = now;
+            alive.add(pc);
+        }
+        for (var pc : alive) {
+            idle.offerLast(pc);
+        }
+
+        //补充池中连接
+        var missing = target - borrowedCount() - idle.size();
+        if (missing > 0) {
+            fill(missing);
+        }
+    }
+
+    /**
+     * 并行创建缺少的连接，最多同时创建{@link PoolConfig#openParallelism}个，全部完成后返回。
+     * 创建失败时不再继续创建，等待下次维护。
+     */
+    private void fill(int missing) {
+        var remaining = new AtomicInteger(missing);
+        Runnable task = () -> {
+            while (!closed && remaining.getAndDecrement() > 0) {
+                try {
+                    var pc = open();
+                    idle.offerLast(pc);
+                    if (closed && idle.removeFirstOccurrence(pc)) {
+                        FXUtils.tryInvoke(() -> pc.connection.close());
+                    }
+                } catch (Exception ex) {
+                    remaining.set(0);
+                    FXUtils.debug(ConnectionPool.class, "创建连接失败：%s %s", connStr.split("\\?")[0], ex);
+                }
+            }
+        };
+
+        //当前线程也参与创建
+        var tasks = new ArrayList<Future<?>>();
+        try {
+            for (var i = 1; i < Math.min(missing, config.openParallelism); i++) {
+                tasks.add(opener.submit(task));
+            }
+        } catch (RejectedExecutionException ex) {
+            //ignore
+        }
+        task.run();
+        for (var t : tasks) {
+            try {
+                t.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException ex) {
+                //ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package easydao;
+
+import easydao.utils.SizeEstimator;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * 按列存储的数据表
+ * 根据ResultSetMetaData的列类型，Integer、Long、Double列保存为基本类型数组，String列按字典编码，其他列保存为对象数组，null值记录在位图中。
+ * rows()按需把数据复制成普通的DBRow，扫描大量行时使用get(row, column)等方法直接读取列数据。
+ * 适合需要长时间缓存或频繁扫描的结果。
+ *
+ * @author ryu
+ */
+public class DBColumnarTable extends DBTable {
+
+    /**
+     * 列数据
+     */
+    private static abstract class ColumnData {
+        private long[] nulls = new long[1];
+
+        boolean isNull(int row) {
+            return (nulls[row >>> 6] & (1L << row)) != 0;
+        }
+
+        void setNull(int row) {
+            if (row >>> 6 >= nulls.length) {
+                nulls = Arrays.copyOf(nulls, Math.max(nulls.length * 2, (row >>> 6) + 1));
+            }
+            nulls[row >>> 6] |= 1L << row;
+        }
+
+        /**
+         * 读取当前行的值
+         */
+        abstract void read(ResultSet rs, int column, int row) throws SQLException;
+
+        abstract Object get(int row);
+
+        /**
+         * 读取完成后释放多余的容量
+         */
+        void trim(int rows) {
+            nulls = Arrays.copyOf(nulls, (rows >>> 6) + 1);
+        }
+
+        long estimateSize() {
+            return 16 + SizeEstimator.estimate(nulls);
+        }
+    }
+
+    private static class IntData extends ColumnData {
+        int[] values = new int[16];
+
+        @Override
+        void read(ResultSet rs, int column, int row) throws SQLException {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, row * 2);
+            }
+            values[row] = rs.getInt(column);
+            if (rs.wasNull()) {
+                setNull(row);
+            }
+        }
+
+        @Override
+        Object get(int row) {
+            return isNull(row) ? null : values[row];
+        }
+
+        @Override
+        void trim(int rows) {
+            super.trim(rows);
+            values = Arrays.copyOf(values, rows);
+        }
+
+        @Override
+        long estimateSize() {
+            return super.estimateSize() + SizeEstimator.estimate(values);
+        }
+    }
+
+    private static class LongData extends ColumnData {
+        long[] values = new long[16];
+
+        @Override
+        void read(ResultSet rs, int column, int row) throws SQLException {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, row * 2);
+            }
+            values[row] = rs.getLong(column);
+            if (rs.wasNull()) {
+                setNull(row);
+            }
+        }
+
+        @Override
+        Object get(int row) {
+            return isNull(row) ? null : values[row];
+        }
+
+        @Override
+        void trim(int rows) {
+            super.trim(rows);
+            values = Arrays.copyOf(values, rows);
+        }
+
+        @Override
+        long estimateSize() {
+            return super.estimateSize() + SizeEstimator.estimate(values);
+        }
+    }
+
+    private static class DoubleData extends ColumnData {
+        double[] values = new double[16];
+
+        @Override
+        void read(ResultSet rs, int column, int row) throws SQLException {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, row * 2);
+            }
+            values[row] = rs.getDouble(column);
+            if (rs.wasNull()) {
+                setNull(row);
+            }
+        }
+
+        @Override
+        Object get(int row) {
+            return isNull(row) ? null : values[row];
+        }
+
+        @Override
+        void trim(int rows) {
+            super.trim(rows);
+            values = Arrays.copyOf(values, rows);
+        }
+
+        @Override
+        long estimateSize() {
+            return super.estimateSize() + SizeEstimator.estimate(values);
+        }
+    }
+
+    /**
+     * 字典编码的字符串列，相同的字符串只保存一份
+     */
+    private static class StringData extends ColumnData {
+        int[] codes = new int[16];
+        ArrayList<String> dictionary = new ArrayList<>();
+        HashMap<String, Integer> lookup = new HashMap<>();
+
+        @Override
+        void read(ResultSet rs, int column, int row) throws SQLException {
+            if (row == codes.length) {
+                codes = Arrays.copyOf(codes, row * 2);
+            }
+            var value = rs.getString(column);
+            if (value == null) {
+                setNull(row);
+                return;
+            }
+            var code = lookup.get(value);
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.add(value);
+                lookup.put(value, code);
+            }
+            codes[row] = code;
+        }
+
+        @Override
+        Object get(int row) {
+            return isNull(row) ? null : dictionary.get(codes[row]);
+        }
+
+        @Override
+        void trim(int rows) {
+            super.trim(rows);
+            codes = Arrays.copyOf(codes, rows);
+            dictionary.trimToSize();
+            lookup = null;
+        }
+
+        @Override
+        long estimateSize() {
+            return super.estimateSize() + SizeEstimator.estimate(codes) + SizeEstimator.estimate(dictionary);
+        }
+    }
+
+    private static class ObjectData extends ColumnData {
+        Object[] values = new Object[16];
+
+        @Override
+        void read(ResultSet rs, int column, int row) throws SQLException {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, row * 2);
+            }
+            values[row] = rs.getObject(column);
+        }
+
+        @Override
+        boolean isNull(int row) {
+            return values[row] == null;
+        }
+
+        @Override
+        Object get(int row) {
+            return values[row];
+        }
+
+        @Override
+        void trim(int rows) {
+            values = Arrays.copyOf(values, rows);
+        }
+
+        @Override
+        long estimateSize() {
+            return 16 + SizeEstimator.estimate(values);
+        }
+    }
+
+    private final ColumnData[] data;
+    private final int rowCount;
+
+    public DBColumnarTable(ResultSet rs) throws SQLException {
+        super(rs.getMetaData());
+        ResultSetMetaData md = rs.getMetaData();
+
+        data = new ColumnData[md.getColumnCount()];
+        for (int i = 0; i < data.length; i++) {
+            var className = md.getColumnClassName(i + 1);
+            if (Integer.class.getName().equals(className)) {
+                data[i] = new IntData();
+            } else if (Long.class.getName().equals(className)) {
+                data[i] = new LongData();
+            } else if (Double.class.getName().equals(className)) {
+                data[i] = new DoubleData();
+            } else if (String.class.getName().equals(className)) {
+                data[i] = new StringData();
+            } else {
+                data[i] = new ObjectData();
+            }
+        }
+
+        var count = 0;
+        while (rs.next()) {
+            for (int i = 0; i < data.length; i++) {
+                data[i].read(rs, i + 1, count);
+            }
+            count++;
+        }
+        for (var column : data) {
+            column.trim(count);
+        }
+        rowCount = count;
+    }
+
+    /**
+     * 行数
+     * @return
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * 复制一行数据，每次调用返回新的DBRow
+     */
+    @Override
+    public DBRow rows(int index) {
+        if (index < 0 || index >= rowCount) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        var values = new Object[data.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = data[i].get(index);
+        }
+        return new DBRow(this, values);
+    }
+
+    /**
+     * 复制所有行，结果不缓存，每次调用都重新复制
+     */
+    @Override
+    public DBRow[] rows() {
+        var result = new DBRow[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            result[i] = rows(i);
+        }
+        return result;
+    }
+
+    @Override
+    public long estimateSize() {
+        long result = 0;
+        for (var col : data) {
+            result += col.estimateSize();
+        }
+        for (var col : columns()) {
+            result += 32 + SizeEstimator.estimate(col.name);
+        }
+        return result;
+    }
+
+    public Object get(int row, int column) {
+        return data[column].get(row);
+    }
+
+    public boolean isNull(int row, int column) {
+        return data[column].isNull(row);
+    }
+
+    /**
+     * 读取int值，null返回0
+     */
+    public int getInt(int row, int column) {
+        var col = data[column];
+        if (col instanceof IntData) {
+            return ((IntData) col).values[row];
+        }
+        var value = col.get(row);
+        return value == null ? 0 : ((Number) value).intValue();
+    }
+
+    /**
+     * 读取long值，null返回0
+     */
+    public long getLong(int row, int column) {
+        var col = data[column];
+        if (col instanceof LongData) {
+            return ((LongData) col).values[row];
+        }
+        if (col instanceof IntData) {
+            return ((IntData) col).values[row];
+        }
+        var value = col.get(row);
+        return value == null ? 0 : ((Number) value).longValue();
+    }
+
+    /**
+     * 读取double值，null返回0
+     */
+    public double getDouble(int row, int column) {
+        var col = data[column];
+        if (col instanceof DoubleData) {
+            return ((DoubleData) col).values[row];
+        }
+        var value = col.get(row);
+        return value == null ? 0 : ((Number) value).doubleValue();
+    }
+}
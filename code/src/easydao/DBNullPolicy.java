@@ -0,0 +1,19 @@
+package easydao;
+
+/**
+ * 读取基本类型列时null值的处理方式
+ */
+public enum DBNullPolicy {
+    /**
+     * 抛出异常
+     */
+    THROW,
+    /**
+     * 跳过null值，结果数组比行数少
+     */
+    SKIP,
+    /**
+     * null值作为0
+     */
+    ZERO
+}
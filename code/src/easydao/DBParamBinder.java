@@ -0,0 +1,47 @@
+package easydao;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * sql参数绑定器
+ * 按参数值的类型选择jdbc的setXxx方法，避免所有参数都用setObject由驱动推断类型。
+ * 没有注册绑定器的类型按父类查找，都没有则使用setObject。
+ *
+ * @author ryu
+ */
+@FunctionalInterface
+public interface DBParamBinder {
+
+    /**
+     * 绑定参数
+     * @param statement
+     * @param index 参数位置，从1开始
+     * @param value 参数值，不为null
+     * @throws SQLException
+     */
+    void bind(PreparedStatement statement, int index, Object value) throws SQLException;
+
+    /**
+     * 默认绑定器
+     */
+    DBParamBinder OBJECT = PreparedStatement::setObject;
+
+    /**
+     * 注册类型的绑定器，替换已有的绑定器
+     * @param type 参数值类型
+     * @param binder
+     */
+    static void register(Class<?> type, DBParamBinder binder) {
+        ParamBinderRegistry.register(type, binder);
+    }
+
+    /**
+     * 获取类型的绑定器
+     * @param type 参数值类型
+     * @return
+     */
+    static DBParamBinder get(Class<?> type) {
+        return ParamBinderRegistry.get(type);
+    }
+}
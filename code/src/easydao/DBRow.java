@@ -22,12 +22,12 @@ public class DBRow
 
     public Object get(String columnName)
     {
-        return values[table.getColumn(columnName).index];
+        return get(table.getColumn(columnName).index);
     }
 
     public Object get(DBColumn col)
     {
-        return values[col.index];
+        return get(col.index);
     }
 
     public <T> T get(Class<T> type, String columnName) throws Exception {
@@ -5,6 +5,8 @@ package easydao;/*
  */
 
 
+import easydao.utils.SizeEstimator;
+
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
@@ -14,9 +16,10 @@ import java.util.*;
 /**
  * 数据表
  */
-public class DBTable {
+public class DBTable implements SizeEstimator.Sized {
 
     private Map<String, DBColumn> columnMap = null;
+    private String layoutKey = null;
     /**
      * 表格包含的所有列
      */
@@ -56,13 +59,46 @@ public class DBTable {
         return columnMap.get(columnName);
     }
 
+    /**
+     * 估算数据表占用的字节数
+     * @return
+     */
+    @Override
+    public long estimateSize() {
+        var rows = rows();
+        long result = SizeEstimator.align(SizeEstimator.ARRAY_HEADER + 4L * rows.length);
+        for (var row : rows) {
+            result += 24 + SizeEstimator.estimate(row.values);
+        }
+        for (var col : columns) {
+            result += 32 + SizeEstimator.estimate(col.name);
+        }
+        return result;
+    }
+
+    /**
+     * 列布局的标识，列名和顺序相同的表标识相同
+     */
+    String getLayoutKey() {
+        var result = layoutKey;
+        if (result == null) {
+            var key = new StringBuilder();
+            for (var col : columns) {
+                key.append(col.name).append('\u0001');
+            }
+            result = key.toString();
+            layoutKey = result;
+        }
+        return result;
+    }
+
     /**
      * 将表转为Map List形式。
      * @return
      */
     public List<Map<String, Object>> toList() {
         var result = new ArrayList<Map<String, Object>>();
-        for (var row : rows) {
+        for (var row : rows()) {
             var item = new HashMap<String, Object>();
             for (var col : columns) {
                 item.put(col.name, row.get(col));
@@ -90,8 +126,19 @@ public class DBTable {
 
 
     public DBTable(ResultSet rs) throws SQLException {
-        ResultSetMetaData md = rs.getMetaData();
+        this(rs.getMetaData(), rs);
+    }
 
+    /**
+     * 只包含列信息的空表，用于逐行读取数据
+     * @param md
+     * @throws SQLException
+     */
+    public DBTable(ResultSetMetaData md) throws SQLException {
+        this(md, null);
+    }
+
+    private DBTable(ResultSetMetaData md, ResultSet rs) throws SQLException {
         int cols = md.getColumnCount();
 
         //init metadata
@@ -105,7 +152,7 @@ public class DBTable {
 
         //init table
         var rows = new ArrayList<DBRow>();
-        while (rs.next()) {
+        while (rs != null && rs.next()) {
             var row = new Object[cols];
             for (int i = 0; i < cols; i++) {
                 row[i] = rs.getObject(i + 1);
@@ -116,4 +163,30 @@ public class DBTable {
         this.rows = rows.toArray(new DBRow[0]);
     }
 
+    /**
+     * 按顺序合并列相同的多个表
+     * @param tables
+     */
+    public DBTable(List<DBTable> tables) {
+        var first = tables.get(0);
+        columns = new DBColumn[first.columns.length];
+        columnMap = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new DBColumn(this, first.columns[i].name, i);
+            columnMap.put(columns[i].name, columns[i]);
+        }
+
+        var rows = new ArrayList<DBRow>();
+        for (var table : tables) {
+            for (var row : table.rows()) {
+                var values = new Object[columns.length];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = row.get(i);
+                }
+                rows.add(new DBRow(this, values));
+            }
+        }
+        this.rows = rows.toArray(new DBRow[0]);
+    }
+
 }
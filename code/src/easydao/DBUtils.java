@@ -11,6 +11,16 @@ import java.nio.file.Paths;
 import java.sql.*;
 import java.util.*;
 import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * db访问工具类
@@ -27,6 +37,11 @@ public class DBUtils {
 
     private Connection transactionConnection = null;
 
+    /**
+     * 事务中写入的表，提交或回滚时使这些表的缓存失效
+     */
+    private final LinkedHashSet<String> transactionWrites = new LinkedHashSet<>();
+
     /**
      * sql配置
      */
@@ -34,9 +49,9 @@ public class DBUtils {
 
     /**
      * 公共sql参数
-     * 这些参数将在所有sql中生效
+     * 这些参数将在所有sql中生效，只有sql引用的参数才会取值
      */
-    public final static ArrayList<DBVariable> commonVariables = new ArrayList<>();
+    public final static DBVariableRegistry commonVariables = new DBVariableRegistry();
 
     public final static ArrayList<Class> registeredInfos =new ArrayList<>(){
         {
@@ -48,6 +63,28 @@ public class DBUtils {
     public static Action1<DBIntercepterInfo> defaultSqlIntercepter = null;
     public Action1<DBIntercepterInfo> sqlIntercepter = defaultSqlIntercepter;
 
+    /**
+     * 默认的逐行读取fetch size
+     */
+    public static int defaultFetchSize = 1000;
+
+    /**
+     * 逐行读取（stream、forEachRow）时每次从数据库取回的行数
+     */
+    public int fetchSize = defaultFetchSize;
+
+    /**
+     * 默认允许使用过期缓存的毫秒数
+     */
+    public static int defaultMaxStaleMs = 0;
+
+    /**
+     * 允许使用过期缓存的毫秒数。
+     * 大于0时，缓存快过期时在后台刷新，刷新完成前返回旧数据，超时超过该时间后才同步查询。0表示不启用。
+     * sql配置的stale属性优先。
+     */
+    public int maxStaleMs = defaultMaxStaleMs;
+
     public final IDBInfo info;
 
 
@@ -75,10 +112,14 @@ public class DBUtils {
      * @throws SQLException
      */
     public void commitTransaction() throws Exception {
-        transactionConnection.commit();
-        transactionConnection.setAutoCommit(true);
-        transactionConnection.close();
-        transactionConnection = null;
+        try {
+            transactionConnection.commit();
+            transactionConnection.setAutoCommit(true);
+            transactionConnection.close();
+            transactionConnection = null;
+        } finally {
+            invalidateTransactionWrites();
+        }
     }
 
     /**
@@ -87,10 +128,79 @@ public class DBUtils {
      * @throws SQLException
      */
     public void rollbackTransaction() throws SQLException {
-        transactionConnection.rollback();
-        transactionConnection.setAutoCommit(true);
-        transactionConnection.close();
-        transactionConnection = null;
+        try {
+            transactionConnection.rollback();
+            transactionConnection.setAutoCommit(true);
+            transactionConnection.close();
+            transactionConnection = null;
+        } finally {
+            invalidateTransactionWrites();
+        }
+    }
+
+    private void invalidateTransactionWrites() {
+        if (!transactionWrites.isEmpty()) {
+            defaultCache.invalidate(transactionWrites.toArray(new String[0]));
+            transactionWrites.clear();
+        }
+    }
+
+    /**
+     * 使读取这些表的缓存失效
+     * DBUtils执行的insert、update、delete等语句会自动使写入的表的缓存失效，其他途径修改数据后调用此方法。
+     * @param tables 表名，不区分大小写
+     */
+    public void invalidateCache(String... tables) {
+        var tags = new String[tables.length];
+        for (var i = 0; i < tables.length; i++) {
+            tags[i] = getCacheTag(SqlTables.normalize(tables[i], info.isMySQLSyntax()));
+        }
+        defaultCache.invalidate(tags);
+    }
+
+    private String getCacheTag(String table) {
+        return connStr + "|" + table;
+    }
+
+    /**
+     * sql读取的表的缓存标签，sql配置中有tables属性时使用配置的表，否则从sql中提取
+     */
+    private String[] getReadTags(String sql, SqlPlan plan) throws Exception {
+        String[] tables = null;
+        var configured = getConfigAttr(sql, "tables");
+        if (!FXUtils.isNullOrEmpty(configured)) {
+            tables = configured.split(",");
+            for (var i = 0; i < tables.length; i++) {
+                tables[i] = SqlTables.normalize(tables[i], info.isMySQLSyntax());
+            }
+        }
+        if (tables == null) {
+            tables = SqlTables.of(plan.sql, info.isMySQLSyntax()).reads;
+        }
+        var result = new String[tables.length];
+        for (var i = 0; i < tables.length; i++) {
+            result[i] = getCacheTag(tables[i]);
+        }
+        return result;
+    }
+
+    /**
+     * sql写入表后使这些表的缓存失效，事务中等到提交或回滚时失效
+     */
+    private void invalidateWrites(SqlPlan plan) {
+        var tables = SqlTables.of(plan.sql, info.isMySQLSyntax()).writes;
+        if (tables.length == 0) {
+            return;
+        }
+        var tags = new String[tables.length];
+        for (var i = 0; i < tables.length; i++) {
+            tags[i] = getCacheTag(tables[i]);
+        }
+        if (inTransaction()) {
+            transactionWrites.addAll(Arrays.asList(tags));
+        } else {
+            defaultCache.invalidate(tags);
+        }
     }
 
     /*
@@ -117,125 +227,186 @@ public class DBUtils {
         throw new IllegalArgumentException("不支持的数据库类型");
     }
 
-    static class PoolledConnection
-    {
-        public Date time;
-        public Connection connection;
+    /**
+     * 创建DB访问对象并预热连接池，等待连接池达到最小连接数后返回。
+     * @param connStr 连接字符串
+     * @param warmUpTimeoutMs 等待预热完成的超时毫秒数
+     */
+    public DBUtils(String connStr, long warmUpTimeoutMs) throws Exception {
+        this(connStr);
+        if (!warmUp(warmUpTimeoutMs)) {
+            FXUtils.debug(DBUtils.class, "连接池预热超时：%s", connStr.split("\\?")[0]);
+        }
     }
 
-
-    static final int poolTimeoutMs = 30000; //池中连接超时时间，必须大于15000
-    final static int poolmin = 5;//池最小连接数量，不小于5.
-    final static int poolmax = 50;//池最大连接数，不大于db自身的限制
-    static class ConnectionPool extends ArrayList<PoolledConnection>
-    {
-        public int max = poolmin*2;//default size
+    /**
+     * 预热连接池：立即补充池中连接直到达到连接池的最小连接数，方法等待预热完成或超时后返回。
+     * 每个新连接都会准备{@link PoolConfig#warmUpSqls}配置的sql放入Statement缓存。
+     * @param timeoutMs 等待超时毫秒数
+     * @return 是否在超时前完成预热
+     * @throws Exception
+     */
+    public boolean warmUp(long timeoutMs) throws Exception {
+        return getPool().warmUp(timeoutMs);
     }
+    /**
+     * 默认连接池配置，没有单独配置的连接字符串使用该配置
+     */
+    public static PoolConfig defaultPoolConfig = new PoolConfig();
 
-    static Hashtable<String, ConnectionPool> connPools = new Hashtable<>();
-    static Thread poolThread = null;
-    static void poolThreadProc() {
-        while (true) {
-            try {
-                //为连接池准备连接
-                var now = new Date().getTime();
-                for (var connStr : connPools.keySet()) {
-                    var pool = connPools.get(connStr);
-
-                    //移除超时连接
-                    var count = 0;
-                    for (var pc : pool.toArray(new PoolledConnection[0])) {
-                        if ((now - pc.time.getTime()) > poolTimeoutMs) {
-                            FXUtils.tryInvoke(() -> pc.connection.close());
-                            synchronized (pool) {
-                                pool.remove(pc);
-                            }
-                            count++;
-                        }
-                    }
-                    if(count>0 && pool.max > poolmin) {
-                        //存在超时的连接说明连接池过大，自动收缩连接池
-                        pool.max = Math.max(poolmin, pool.max - count / 2);
-                        //easyorm.utils.FXUtils.debug(easyorm.DBUtils.class, "%s的连接池上限收缩到%d。", connStr.split("\\?")[0], pool.max);
-                    }
+    static final int poolMaintainMs = 5000; //连接池维护间隔
 
-                    //补充池中连接
-                    while (pool.size() < pool.max) {
+    static final ConcurrentHashMap<String, PoolConfig> poolConfigs = new ConcurrentHashMap<>();
+    static final ConcurrentHashMap<String, ConnectionPool> connPools = new ConcurrentHashMap<>();
 
-                        var index = new ArrayList<Integer>();
-                        for(var i = 0;i<pool.max - pool.size();i++) {
-                            index.add(i);
-                        }
-                        index.parallelStream().forEach(i->{
-                            try {
-                                var conn = DriverManager.getConnection(connStr);
-                                var pc = new PoolledConnection();
-                                pc.connection = conn;
-                                pc.time = new Date();
-                                synchronized (pool) {
-                                    pool.add(pc);
-                                }
-                            }
-                            catch(Exception ex)
-                            {
-                                ex.printStackTrace();
-                                //ignore
-                            }
-                        });
+    private static final ReentrantLock poolSchedulerLock = new ReentrantLock();
+    private static ScheduledExecutorService poolScheduler = null;
 
-                    }
-                }
-
-                //
-                Thread.sleep(Math.max(1, poolTimeoutMs - 10000));
-            } catch (Exception ex) {
-                ex.printStackTrace();
+    /**
+     * 获取连接池维护线程，维护线程是守护线程，不阻止JVM退出。
+     * @return
+     */
+    static ScheduledExecutorService getPoolScheduler() {
+        poolSchedulerLock.lock();
+        try {
+            if (poolScheduler == null) {
+                var scheduler = new ScheduledThreadPoolExecutor(2, r -> {
+                    var thread = new Thread(r, "easydao-pool");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                scheduler.setRemoveOnCancelPolicy(true);
+                poolScheduler = scheduler;
             }
+            return poolScheduler;
+        } finally {
+            poolSchedulerLock.unlock();
         }
     }
 
     /**
-     * 从连接池中获取连接，连接池中没有可用连接则返回null
+     * 获取连接字符串对应的连接池，连接池第一次使用时创建并开始定期维护。
      * @param connStr
      * @return
-     * @throws Exception
      */
-    static Connection getPoolConn(String connStr) throws Exception {
-
-        if (poolThread == null) {
-            poolThread = new Thread(() -> poolThreadProc());
-            poolThread.start();
-        }
-
+    private ConnectionPool getPool() {
         var pool = connPools.get(connStr);
-        if (pool == null) {
-            synchronized (connPools) {
-                connPools.put(connStr, new ConnectionPool());
-            }
-            return null;
+        if (pool != null) {
+            return pool;
         }
 
-        if (pool.size() == 0 && pool.max < poolmax) {
-            pool.max = (int) Math.min(poolmax, pool.max * 1.1 + 1);//池中连接用完了， 自动扩大池上限。
-            //easyorm.utils.FXUtils.debug(easyorm.DBUtils.class, "%s的连接池上限提升到%d。", connStr.split("\\?")[0], pool.max);
+        return connPools.computeIfAbsent(connStr, s -> {
+            var result = new ConnectionPool(s, poolConfigs.getOrDefault(s, defaultPoolConfig).copy());
+            result.init = getConnectionInit(result.config.warmUpSqls);
+            result.start(getPoolScheduler(), poolMaintainMs);
+            return result;
+        });
+    }
+
+    /**
+     * 新连接的初始化操作：准备{@link PoolConfig#warmUpSqls}配置的sql放入Statement缓存，动态sql不准备。
+     */
+    private Action1<ConnectionPool.PoolledConnection> getConnectionInit(String[] warmUpSqls) {
+        if (warmUpSqls.length == 0) {
             return null;
         }
+        return pc -> {
+            for (var sql : warmUpSqls) {
+                sql = getConfigSql(sql).trim();
+                if (SqlTemplate.isTemplate(sql)) {
+                    continue;
+                }
+                pc.prepareStatement(SqlPlan.compile(sql, info.isMySQLSyntax()).sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY).close();
+            }
+        };
+    }
+    /**
+     * 后台刷新缓存的线程数
+     */
+    public static int refreshThreads = 2;
 
-        PoolledConnection result;
+    private static ExecutorService refreshExecutor = null;
 
-        synchronized (pool) {
-            if (pool.size() > 0) {
-                result = pool.remove(0);
-            } else {
-                return null;
+    /**
+     * 获取后台刷新缓存的线程池，线程是守护线程，不阻止JVM退出。
+     * @return
+     */
+    static ExecutorService getRefreshExecutor() {
+        poolSchedulerLock.lock();
+        try {
+            if (refreshExecutor == null) {
+                refreshExecutor = Executors.newFixedThreadPool(refreshThreads, r -> {
+                    var thread = new Thread(r, "easydao-refresh");
+                    thread.setDaemon(true);
+                    return thread;
+                });
             }
+            return refreshExecutor;
+        } finally {
+            poolSchedulerLock.unlock();
         }
+    }
 
-        return result.connection;
+    /**
+     * 关闭所有连接池、连接池维护线程和缓存刷新线程。
+     * 空闲连接立即关闭，借出的连接在归还时关闭，尚未执行的缓存刷新取消。关闭后再访问db会重新创建连接池。
+     */
+    public static void shutdown() {
+        poolSchedulerLock.lock();
+        try {
+            if (refreshExecutor != null) {
+                for (var task : refreshExecutor.shutdownNow()) {
+                    if (task instanceof Future) {
+                        ((Future<?>) task).cancel(false);
+                    }
+                }
+                refreshExecutor = null;
+            }
+            for (var connStr : connPools.keySet()) {
+                var pool = connPools.remove(connStr);
+                if (pool != null) {
+                    pool.close();
+                }
+            }
+            if (poolScheduler != null) {
+                poolScheduler.shutdownNow();
+                poolScheduler = null;
+            }
+        } finally {
+            poolSchedulerLock.unlock();
+        }
     }
 
+    /**
+     * 设置连接字符串的连接池配置，必须在该连接字符串第一次访问db前设置。
+     * @param connStr 连接字符串
+     * @param config 连接池配置，连接池使用配置的副本
+     */
+    public static void setPoolConfig(String connStr, PoolConfig config) {
+        connStr = connStr.trim();
+        config.validate();
+        if (connPools.containsKey(connStr)) {
+            throw new IllegalStateException("连接池已经创建，不能修改配置：" + connStr.split("\\?")[0]);
+        }
+        poolConfigs.put(connStr, config.copy());
+    }
 
+    /**
+     * 获取连接字符串对应的连接池大小控制器，可以查看连接池的目标大小和调整决策。
+     * @param connStr 连接字符串
+     * @return 连接池还没有创建时返回null
+     */
+    public static PoolSizer getPoolSizer(String connStr) {
+        var pool = connPools.get(connStr.trim());
+        return pool == null ? null : pool.sizer;
+    }
 
+    /**
+     * 从连接池中获取连接，借出的连接数达到上限时等待其它连接归还。
+     * 返回的连接关闭时自动归还连接池。
+     * @return
+     * @throws Exception
+     */
     private Connection createConnection() throws Exception {
 //        switch(info.type)
 //        {
@@ -244,11 +415,7 @@ public class DBUtils {
 //                DataSource ds = (DataSource)ctx.lookup("java:comp/env/jdbc/MySQLDB");
 //                return ds.getConnection();
 //        }
-        var result = getPoolConn(connStr);
-        if(result != null) {
-            return result;
-        }
-        return DriverManager.getConnection(connStr);
+        return getPool().acquire();
         //return info.driver.connect(connStr, null);
     }
 
@@ -257,32 +424,35 @@ public class DBUtils {
     }
 
 
-//    static ScriptEngine script = null;
-
-    private void getRealSql(DBIntercepterInfo info) throws Exception {
-
-        var sql = info.sql.trim();
-
-        //如果是sql配置则加载配置的sql
-        if (!sql.contains(" ")) {
+    /**
+     * sql是sql key时返回配置的sql，否则返回sql本身
+     * @param sql
+     * @return
+     */
+    private String getConfigSql(String sql) {
+        sql = sql.trim();
+        if (!sql.contains(" ") && sqlConfig != null) {
             String cfgsql = sqlConfig.get(sql);
             if (!FXUtils.isNullOrEmpty(cfgsql)) {
-                sql =  cfgsql;
+                return cfgsql;
             }
         }
+        return sql;
+    }
 
-        //解析sql中的js脚本
-        if(sql.contains("{")) {
-            sql = sql.replace("`", "\\`");
-            sql = String.join("{", Query.from(sql.split("\\{\\{")).select(s -> s.replace("{", "`+(")));
-            sql = String.join("}", Query.from(sql.split("\\}\\}")).select(s -> s.replace("}", ")+`")));
-            sql = "`" + sql + "`";
-            var scriptArgs = new HashMap<String, Object>();
-            for(var i : info.sqlArgs)
-            {
-                scriptArgs.put(i.name, i.getValue(this));
-            }
-            sql = FXUtils.eval(sql, scriptArgs).toString();
+    private void getRealSql(DBIntercepterInfo info, VariableScope scope) throws Exception {
+
+        //如果是sql配置则加载配置的sql
+        var sql = getConfigSql(info.sql);
+
+        //解析sql中的表达式，模板只编译一次
+        //模板表达式和模板文本中的?参数一起预先取值，sql表达式参数只访问一次db
+        if(SqlTemplate.isTemplate(sql)) {
+            var template = SqlTemplate.compile(sql);
+            var names = new LinkedHashSet<String>(Arrays.asList(template.getNames()));
+            names.addAll(Arrays.asList(SqlPlan.compile(sql, this.info.isMySQLSyntax()).names));
+            scope.prefetch(info.connection, names.toArray(new String[0]));
+            sql = template.render(scope::get);
         }
 
         //
@@ -299,22 +469,6 @@ public class DBUtils {
 
     }
 
-    private class DBVariableInfo {
-
-        public DBVariable variable;
-        public ArrayList<Integer> sqlPositions = new ArrayList<>();
-        public DBVariableInfo(DBVariable variable) {
-            this.variable = variable;
-        }
-    }
-
-    private Object processArg(Object arg) {
-        if (arg instanceof Date) {
-            return new Timestamp(((Date) arg).getTime());
-        }
-        return arg;
-    }
-
 //    class Sql
 //    {
 //        public String sql;
@@ -324,26 +478,144 @@ public class DBUtils {
 //
 //    ArrayList<Sql> SqlQueue = new ArrayList<>();
 
-    private PreparedStatement makeStatement(Connection conn, String sql, Func1<String, String> sqlPreprocessor, Ref<String> realSql, Object... args) throws Exception {
+    /**
+     * 一次执行的sql参数
+     * 调用时传入的参数优先于公共参数，参数在sql实际用到时才取值，每个参数只取一次值。
+     */
+    private class VariableScope {
+        private final HashMap<String, DBVariable> args = new HashMap<>();
+        private final HashMap<String, Object> values = new HashMap<>();
+
+        /**
+         * 加入调用时传入的参数，后加入的同名参数覆盖先加入的参数
+         */
+        void add(DBVariable variable) {
+            args.put(variable.name, variable);
+        }
 
-        //准备sql参数
-        var vars = new ArrayList<DBVariableInfo>();
-        for (DBVariable cv : commonVariables) {
-            vars.add(new DBVariableInfo(cv));
+        DBVariable find(String name) {
+            var result = args.get(name);
+            return result != null ? result : commonVariables.get(name);
         }
 
-        for (int i = 0; i < args.length; i++) {
-            Object arg = args[i];
-            if (arg instanceof DBVariable) {
-                vars.add(new DBVariableInfo((DBVariable) arg));
+        /**
+         * 为sql用到的sql表达式参数预先取值。
+         * 没有缓存值的sql表达式在当前连接上通过一次db访问取值，多个表达式合并为一条select (e0) c0, (e1) c1...。
+         * 合并时每个表达式都必须是返回单个值的标量子查询；合并的查询失败（比如某个表达式返回多行）时逐个执行，取第一行第一列。
+         * 已经取值的参数不再重复取值。
+         * @param conn 当前连接
+         * @param names sql用到的参数名
+         */
+        void prefetch(Connection conn, String[] names) throws Exception {
+            var pending = new ArrayList<DBVariable>();
+            var cached = new Ref<Object>();
+            for (var name : names) {
+                if (values.containsKey(name)) {
+                    continue;
+                }
+                var variable = find(name);
+                if (variable == null || variable.getType() != DBVariableType.TYPE_VALUE_SQLEXP || pending.contains(variable)) {
+                    continue;
+                }
+                if (variable.tryGetCached(DBUtils.this, cached)) {
+                    values.put(name, cached.get());
+                    continue;
+                }
+                pending.add(variable);
+            }
+            if (pending.isEmpty()) {
+                return;
+            }
+
+            if (pending.size() > 1) {
+                try {
+                    fetch(conn, pending);
+                    return;
+                } catch (SQLException ex) {
+                    FXUtils.debug(DBUtils.class, "sql表达式参数合并取值失败，逐个取值:" + ex);
+                }
+            }
+            for (var variable : pending) {
+                fetch(conn, List.of(variable));
+            }
+        }
+
+        private void fetch(Connection conn, List<DBVariable> variables) throws Exception {
+            String sql;
+            if (variables.size() == 1) {
+                sql = variables.get(0).getSqlExp();
             } else {
-                vars.add(new DBVariableInfo(new DBVariable("v" + i, arg)));
+                var combined = new StringBuilder("select ");
+                for (var i = 0; i < variables.size(); i++) {
+                    combined.append(i == 0 ? "(" : ", (").append(getConfigSql(variables.get(i).getSqlExp())).append(") c").append(i);
+                }
+                sql = combined.toString();
+            }
+
+            try (var pstmt = makeStatement(conn, sql, null, new Ref<>()); var rs = pstmt.executeQuery()) {
+                var hasRow = rs.next();
+                for (var i = 0; i < variables.size(); i++) {
+                    var variable = variables.get(i);
+                    var value = hasRow ? rs.getObject(i + 1) : null;
+                    variable.setCached(DBUtils.this, value);
+                    values.put(variable.name, value);
+                }
             }
         }
 
+        Object get(String name) throws Exception {
+            if (values.containsKey(name)) {
+                return values.get(name);
+            }
+            var variable = find(name);
+            if (variable == null) {
+                throw new SQLException("没有找到sql参数：" + name);
+            }
+            //每个变量只取一次值，防止有些getter和sql exp变量多次取值，值不相同，违反调用者直觉。
+            var value = variable.getValue(DBUtils.this);
+            values.put(name, value);
+            return value;
+        }
+    }
+
+    /**
+     * 翻译后的sql和参数值
+     */
+    private static class BoundSql {
+        final SqlPlan plan;
+        final Object[] values;
+
+        BoundSql(SqlPlan plan, Object[] values) {
+            this.plan = plan;
+            this.values = values;
+        }
+    }
+
+    private PreparedStatement makeStatement(Connection conn, String sql, Func1<String, String> sqlPreprocessor, Ref<String> realSql, Object... args) throws Exception {
+        var parts = expand(bindSql(conn, sql, sqlPreprocessor, args));
+        if (parts.size() > 1) {
+            throw new SQLException("IN列表参数超过数据库上限：" + info.getMaxInListSize());
+        }
+        realSql.set(parts.get(0).plan.sql);
+        return createStatement(conn, parts.get(0));
+    }
+
+    private BoundSql bindSql(Connection conn, String sql, Func1<String, String> sqlPreprocessor, Object... args) throws Exception {
+
+        //准备sql参数
+        var scope = new VariableScope();
+        var commons = commonVariables.variables();
+        var sqlArgs = Arrays.copyOf(commons, commons.length + args.length);
+        for (int i = 0; i < args.length; i++) {
+            Object arg = args[i];
+            var variable = arg instanceof DBVariable ? (DBVariable) arg : new DBVariable("v" + i, arg);
+            scope.add(variable);
+            sqlArgs[commons.length + i] = variable;
+        }
+
         //准备sql脚本
-        var info = new DBIntercepterInfo(this, conn, sql, Query.from(vars).select(i->i.variable).toArray(DBVariable.class));
-        getRealSql(info);
+        var info = new DBIntercepterInfo(this, conn, sql, sqlArgs);
+        getRealSql(info, scope);
 
         //预处理sql
         if(sqlPreprocessor!=null)
@@ -351,56 +623,172 @@ public class DBUtils {
             info.sql = sqlPreprocessor.invoke(info.sql);
         }
 
-        //将sql转换为jdbc格式 （todo：需要按语义翻译或为?提供转义符，防止错误地替换变量名）
-        vars.sort((a, b) -> b.variable.name.length() - a.variable.name.length());
+        //将sql转换为jdbc格式，同一sql只解析一次
+        var plan = SqlPlan.compile(info.sql, this.info.isMySQLSyntax());
 
-        String sqlFind = info.sql;
-        ArrayList<Integer> allVarPos = new ArrayList<>();
-        for (DBVariableInfo var : vars) {
-            int sqlPos = -1;
-            String varName = "?" + var.variable.name;
-            while ((sqlPos = sqlFind.indexOf(varName, sqlPos + 1)) != -1) {
-                allVarPos.add(sqlPos);
-                var.sqlPositions.add(sqlPos);
+        //只对sql引用的参数取值，sql表达式参数合并取值。模板中已经取值的参数不再访问db
+        scope.prefetch(conn, plan.names);
+        var values = new Object[plan.names.length];
+        for (var i = 0; i < values.length; i++) {
+            values[i] = scope.get(plan.names[i]);
+        }
+        return new BoundSql(plan, values);
+    }
+
+    /**
+     * 展开集合和数组参数（byte[]除外）为多个占位符。
+     * 元素数按2的幂取整，多出的位置重复最后一个元素，空集合展开为一个null（只能用于in (...)），这样不同长度的列表只产生少数几种sql。
+     * 占位符总数超过{@link IDBInfo#getMaxInListSize()}时把最长的列表分批，每批返回一条sql，其他参数占用的占位符从每批的上限中扣除。
+     * 是否允许分批由调用者决定，见{@link #execute(int, Func1, Func1, Func1, String, Object...)}的合并器。
+     * @param bound
+     * @return
+     * @throws SQLException 多个列表参数超过上限，空列表或分批的列表不在in (...)中
+     */
+    private List<BoundSql> expand(BoundSql bound) throws SQLException {
+        Object[][] elements = null;
+        for (var i = 0; i < bound.values.length; i++) {
+            var items = toElements(bound.values[i]);
+            if (items != null) {
+                if (elements == null) {
+                    elements = new Object[bound.values.length][];
+                }
+                elements[i] = items;
             }
-            sqlFind = sqlFind.replace(varName, padRight("?", ' ', varName.length()));
+        }
+        if (elements == null) {
+            return List.of(bound);
         }
 
-        allVarPos.sort((a, b) -> a - b);
-        realSql.set(sqlFind);
+        //空列表展开为null，只有在in (...)中结果才正确，not in (null)不会返回任何行
+        for (var i = 0; i < elements.length; i++) {
+            if (elements[i] != null && elements[i].length == 0 && !isInList(bound.plan, i)) {
+                throw new SQLException("空的列表参数只能用于in (...)条件：" + bound.plan.names[i]);
+            }
+        }
 
-        //创建jdbc对象
-        PreparedStatement result = conn.prepareStatement(sqlFind, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);//每个变量只取一次值，防止有些getter和sql exp变量多次取值，值不相同，违反调用者直觉。
-        for (DBVariableInfo var : vars) {
-            if(var.sqlPositions.isEmpty())
-            {
-                continue;
+        //一条sql的占位符总数（包括其他参数）不能超过上限，超过时把最长的列表参数分批
+        var max = info.getMaxInListSize();
+        var counts = new int[elements.length];
+        for (var slot : bound.plan.slots) {
+            counts[slot]++;
+        }
+        var chunked = -1;
+        var total = 0;
+        for (var i = 0; i < elements.length; i++) {
+            //超过上限的列表按实际元素数计算，保证分批
+            total += counts[i] * (elements[i] == null ? 1 : elements[i].length > max ? elements[i].length : expandedSize(elements[i].length, max));
+            if (elements[i] != null && (chunked == -1 || elements[i].length > elements[chunked].length)) {
+                chunked = i;
             }
-            var value = processArg(var.variable.getValue(this));
-            for (int pos : var.sqlPositions) {
-                result.setObject(allVarPos.indexOf(pos) + 1, value);
+        }
+        if (total <= max) {
+            return List.of(expand(bound, elements, max, -1, 0));
+        }
+        for (var i = 0; i < elements.length; i++) {
+            if (i != chunked && elements[i] != null && elements[i].length > max) {
+                throw new SQLException("多个IN列表参数超过数据库上限：" + max);
             }
         }
 
+        //not in等条件分批执行的结果不正确
+        if (!isInList(bound.plan, chunked)) {
+            throw new SQLException("列表参数超过数据库上限，只有in (...)条件可以分批执行：" + bound.plan.names[chunked]);
+        }
+
+        //每批的元素数：上限减去其他占位符，再按列表在sql中出现的次数平分
+        var all = elements[chunked];
+        var budget = (max - (total - counts[chunked] * (all.length > max ? all.length : expandedSize(all.length, max)))) / counts[chunked];
+        if (budget < 1) {
+            throw new SQLException("sql参数超过数据库上限：" + max);
+        }
+        var result = new ArrayList<BoundSql>();
+        for (var from = 0; from < all.length; from += budget) {
+            elements[chunked] = Arrays.copyOfRange(all, from, Math.min(from + budget, all.length));
+            result.add(expand(bound, elements, max, chunked, budget));
+        }
         return result;
+    }
 
+    /**
+     * 参数在sql中的每个位置是否都紧跟在in (之后
+     */
+    private static boolean isInList(SqlPlan plan, int name) {
+        for (var j = 0; j < plan.slots.length; j++) {
+            if (plan.slots[j] == name && plan.inListContext(j) != 1) {
+                return false;
+            }
+        }
+        return true;
     }
 
-    private static String padRight(String str, char c, int length) {
-        return str + makeString(String.valueOf(c), "", length - str.length());
+    /**
+     * 列表展开的占位符数：元素数按2的幂取整，不超过max，空列表为1
+     */
+    private static int expandedSize(int length, int max) {
+        var size = 1;
+        while (size < length) {
+            size <<= 1;
+        }
+        return Math.min(size, max);
     }
 
-    private static String makeString(String item, String spliter, int count) {
-        if (count == 0) {
-            return "";
+    /**
+     * @param max 每个列表展开的占位符上限
+     * @param chunked 分批的列表参数，每批展开的占位符数不超过budget；没有分批时为-1
+     */
+    private static BoundSql expand(BoundSql bound, Object[][] elements, int max, int chunked, int budget) {
+        var sizes = new int[elements.length];
+        for (var i = 0; i < elements.length; i++) {
+            if (elements[i] != null) {
+                sizes[i] = expandedSize(elements[i].length, i == chunked ? budget : max);
+            }
         }
 
-        StringBuilder result = new StringBuilder();
-        for (int i = 0; i < count; i++) {
-            result.append(item);
-            result.append(spliter);
+        var plan = bound.plan.expand(sizes);
+        var values = new Object[plan.names.length];
+        var k = 0;
+        for (var i = 0; i < elements.length; i++) {
+            var items = elements[i];
+            if (items == null) {
+                values[k++] = bound.values[i];
+                continue;
+            }
+            for (var j = 0; j < sizes[i]; j++) {
+                values[k++] = items.length == 0 ? null : items[Math.min(j, items.length - 1)];
+            }
         }
-        return result.substring(0, result.length() - spliter.length());
+        return new BoundSql(plan, values);
+    }
+
+    /**
+     * 集合或数组参数的元素，其他参数返回null
+     */
+    private static Object[] toElements(Object value) {
+        if (value instanceof Collection) {
+            return ((Collection<?>) value).toArray();
+        }
+        if (value instanceof Object[]) {
+            return (Object[]) value;
+        }
+        if (value == null || value instanceof byte[] || !value.getClass().isArray()) {
+            return null;
+        }
+        var result = new Object[java.lang.reflect.Array.getLength(value)];
+        for (var i = 0; i < result.length; i++) {
+            result[i] = java.lang.reflect.Array.get(value, i);
+        }
+        return result;
+    }
+
+    private PreparedStatement createStatement(Connection conn, BoundSql bound) throws Exception {
+        PreparedStatement result = conn.prepareStatement(bound.plan.sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        try {
+            bound.plan.bind(result, bound.values);
+        } catch (Exception ex) {
+            result.close();
+            throw ex;
+        }
+        return result;
     }
 
     private static boolean isNumeric(String str) {
@@ -415,7 +803,8 @@ public class DBUtils {
     }
 
     public DBTable page(int page, int rows, String sql, Object... args) throws Exception {
-        return executeTable(0, s->info.wrapPage(s, page, rows), sql, args);
+        //分批执行的结果无法分页
+        return executeTable(0, s->info.wrapPage(s, page, rows), null, sql, args);
     }
 
     /**
@@ -426,11 +815,12 @@ public class DBUtils {
      * @throws Exception
      */
     public void execute(String sql, Object... args) throws Exception {
-        execute(0, pstmt->pstmt.execute(), null, sql, args);
+        execute(0, pstmt->pstmt.execute(), results->results.get(results.size() - 1), null, sql, args);
     }
 
     public int count(String sql, Object... args) throws Exception {
-        return FXUtils.changeType(executeTable(0, s->info.wrapCount(s), sql, args).rows(0).get(0), int.class);
+        //分批计数无法去掉重复的行，不允许分批执行
+        return FXUtils.changeType(executeTable(0, s->info.wrapCount(s), null, sql, args).rows(0).get(0), int.class);
     }
 
     public DBTable executeTable(String sql, Object... args) throws Exception {
@@ -441,21 +831,231 @@ public class DBUtils {
         ArrayList<T> result = new ArrayList<>();
         DBTable data = executeTable(sql, args);
         for (var row : data.rows()) {
-            result.add((T) row.values[0]);
+            result.add((T) row.get(0));
         }
 
         return result.toArray((T[]) java.lang.reflect.Array.newInstance(TColumn, 0));
     }
 
+    public int[] executeIntColumn(String sql, Object... args) throws Exception {
+        return executeIntColumn(DBNullPolicy.THROW, sql, args);
+    }
+
+    /**
+     * 执行Sql并返回首列的int值，不装箱
+     *
+     * @param nullPolicy null值的处理方式
+     * @param sql        sql语句
+     * @param args       sql参数
+     * @return
+     * @throws Exception
+     */
+    public int[] executeIntColumn(DBNullPolicy nullPolicy, String sql, Object... args) throws Exception {
+        return executePrimitiveColumn(pstmt -> {
+            try (var rs = pstmt.executeQuery()) {
+                return PrimitiveColumn.readInts(rs);
+            }
+        }, sql, args).toIntArray(nullPolicy);
+    }
+
+    public long[] executeLongColumn(String sql, Object... args) throws Exception {
+        return executeLongColumn(DBNullPolicy.THROW, sql, args);
+    }
+
+    /**
+     * 执行Sql并返回首列的long值，不装箱
+     *
+     * @param nullPolicy null值的处理方式
+     * @param sql        sql语句
+     * @param args       sql参数
+     * @return
+     * @throws Exception
+     */
+    public long[] executeLongColumn(DBNullPolicy nullPolicy, String sql, Object... args) throws Exception {
+        return executePrimitiveColumn(pstmt -> {
+            try (var rs = pstmt.executeQuery()) {
+                return PrimitiveColumn.readLongs(rs);
+            }
+        }, sql, args).toLongArray(nullPolicy);
+    }
+
+    public double[] executeDoubleColumn(String sql, Object... args) throws Exception {
+        return executeDoubleColumn(DBNullPolicy.THROW, sql, args);
+    }
+
+    /**
+     * 执行Sql并返回首列的double值，不装箱
+     *
+     * @param nullPolicy null值的处理方式
+     * @param sql        sql语句
+     * @param args       sql参数
+     * @return
+     * @throws Exception
+     */
+    public double[] executeDoubleColumn(DBNullPolicy nullPolicy, String sql, Object... args) throws Exception {
+        return executePrimitiveColumn(pstmt -> {
+            try (var rs = pstmt.executeQuery()) {
+                return PrimitiveColumn.readDoubles(rs);
+            }
+        }, sql, args).toDoubleArray(nullPolicy);
+    }
+
+    /**
+     * 缓存的是列数据，每次按null处理方式复制出新的数组。
+     * 每种类型的执行器在不同的调用处创建，缓存互不影响。
+     */
+    private PrimitiveColumn executePrimitiveColumn(Func1<PreparedStatement, PrimitiveColumn> executor, String sql, Object... args) throws Exception {
+        return execute(getDefaultCacheMs(sql),
+                executor,
+                null,
+                null,
+                sql,
+                args
+        );
+    }
+
 
 
+    /**
+     * 逐行读取查询结果，不在内存中保存整个结果。
+     * 所有行共用同一个DBRow对象，只在读取到下一行之前有效，需要保存时复制DBRow.values。
+     * 使用完后必须关闭Stream以释放连接。
+     *
+     * @param sql  sql语句或sql key
+     * @param args sql参数
+     * @return
+     * @throws Exception
+     */
+    public Stream<DBRow> stream(String sql, Object... args) throws Exception {
+        Connection conn = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        var realSql = new Ref<String>();
+        try {
+            conn = getConnection();
+            pstmt = makeStatement(conn, sql, null, realSql, args);
+            pstmt.setFetchSize(info.getStreamFetchSize(fetchSize));
+            rs = pstmt.executeQuery();
+            FXUtils.debug(DBUtils.class, realSql.get() + " stream");
+
+            var table = new DBTable(rs.getMetaData());
+            var row = new DBRow(table, new Object[table.columns().length]);
+            var resultSet = rs;
+            var spliterator = new Spliterators.AbstractSpliterator<DBRow>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+                @Override
+                public boolean tryAdvance(Consumer<? super DBRow> action) {
+                    try {
+                        if (!resultSet.next()) {
+                            return false;
+                        }
+                        for (int i = 0; i < row.values.length; i++) {
+                            row.values[i] = resultSet.getObject(i + 1);
+                        }
+                    } catch (SQLException ex) {
+                        throw new RuntimeException(ex);
+                    }
+                    action.accept(row);
+                    return true;
+                }
+            };
+
+            var statement = pstmt;
+            var connection = conn;
+            return StreamSupport.stream(spliterator, false).onClose(() -> closeStream(resultSet, statement, connection));
+        } catch (Exception ex) {
+            FXUtils.debug(DBUtils.class, "sql出错:" + realSql.get());
+            closeStream(rs, pstmt, conn);
+            throw ex;
+        }
+    }
+
+    /**
+     * 逐行读取查询结果并映射为实体对象，使用完后必须关闭Stream以释放连接。
+     *
+     * @param TEntity 实体类型
+     * @param sql     sql语句或sql key
+     * @param args    sql参数
+     * @return
+     * @throws Exception
+     */
+    public <T> Stream<T> stream(Class<T> TEntity, String sql, Object... args) throws Exception {
+        return stream(sql, args).map(row -> {
+            try {
+                return makeEntity(TEntity, row);
+            } catch (Exception ex) {
+                throw new RuntimeException(ex);
+            }
+        });
+    }
+
+    /**
+     * 逐行处理查询结果，不在内存中保存整个结果。
+     * 所有行共用同一个DBRow对象，只在回调中有效。
+     *
+     * @param sql    sql语句或sql key
+     * @param action 行处理函数
+     * @param args   sql参数
+     * @throws Exception
+     */
+    public void forEachRow(String sql, Action1<DBRow> action, Object... args) throws Exception {
+        try (var rows = stream(sql, args)) {
+            var iterator = rows.iterator();
+            while (iterator.hasNext()) {
+                action.invoke(iterator.next());
+            }
+        }
+    }
+
+    /**
+     * 逐行把查询结果映射为实体对象并处理
+     *
+     * @param TEntity 实体类型
+     * @param sql     sql语句或sql key
+     * @param action  实体处理函数
+     * @param args    sql参数
+     * @throws Exception
+     */
+    public <T> void forEach(Class<T> TEntity, String sql, Action1<T> action, Object... args) throws Exception {
+        forEachRow(sql, row -> action.invoke(makeEntity(TEntity, row)), args);
+    }
+
+    private void closeStream(ResultSet rs, PreparedStatement pstmt, Connection conn) {
+        if (rs != null) {
+            FXUtils.tryInvoke(() -> rs.close());
+        }
+        if (pstmt != null) {
+            FXUtils.tryInvoke(() -> pstmt.close());
+        }
+        if (conn != null && !this.inTransaction()) {
+            FXUtils.tryInvoke(() -> conn.close());//归还连接池
+        }
+    }
+
     public DBTable executeTable(int cacheTimeoutMs, Func1<String, String> sqlPreprocess, String sql, Object... args) throws Exception {
+        return executeTable(cacheTimeoutMs, sqlPreprocess, null, sql, args);
+    }
+
+    /**
+     * 执行查询，IN列表参数超过数据库上限时分批执行，按批次顺序拼接每批的行。
+     * 只适用于结果可以按行拼接的sql，不能包含聚合、排序、分页、去重等跨行的操作。其他查询方法不分批执行。
+     *
+     * @param sql  sql语句
+     * @param args sql参数
+     * @return
+     * @throws Exception
+     */
+    public DBTable executeTableInBatches(String sql, Object... args) throws Exception {
+        return executeTable(getDefaultCacheMs(sql), null, DBTable::new, sql, args);
+    }
+
+    private DBTable executeTable(int cacheTimeoutMs, Func1<String, String> sqlPreprocess, Func1<List<DBTable>, DBTable> merger, String sql, Object... args) throws Exception {
         return execute(cacheTimeoutMs,
                 pstmt -> {
                     try (var rs = pstmt.executeQuery()) {
                         return new DBTable(rs);
                     }
                 },
+                merger,
                 sqlPreprocess,
                 sql,
                 args
@@ -475,10 +1075,39 @@ public class DBUtils {
         return executeTable(cacheTimeoutMs, null, sql, args);
     }
 
+    public DBColumnarTable executeColumnarTable(String sql, Object... args) throws Exception {
+        return executeColumnarTable(getDefaultCacheMs(sql), sql, args);
+    }
+
+    /**
+     * 执行Sql并返回按列存储的数据表，占用内存少，适合缓存或扫描大量数据。
+     * IN列表参数超过数据库上限时不能分批执行。
+     *
+     * @param cacheTimeoutMs 允许缓存超时毫秒数
+     * @param sql            sql语句
+     * @param args           sql参数
+     * @return
+     * @throws Exception
+     */
+    public DBColumnarTable executeColumnarTable(int cacheTimeoutMs, String sql, Object... args) throws Exception {
+        return execute(cacheTimeoutMs,
+                pstmt -> {
+                    try (var rs = pstmt.executeQuery()) {
+                        return new DBColumnarTable(rs);
+                    }
+                },
+                null,
+                null,
+                sql,
+                args
+        );
+    }
+
     /**
      *
      * @param cacheTimeoutMs sql结果缓存超时毫秒数，0表示不缓存
      * @param executor 执行器：利用jdbc PreparedStatement执行需要的操作
+     * @param merger 合并器：IN列表参数超过上限分批执行时，合并每批的结果。为null时不允许分批执行。
      * @param sqlPreprocess sql预处理器：在把需要执行的sql语句取出后和翻译成jdbc sql前，预处理sql字符串。
      * @param sql 需要执行的sql语句或sql key（配置在xml中sql的key）
      * @param args sql参数
@@ -486,54 +1115,90 @@ public class DBUtils {
      * @return
      * @throws Exception
      */
-    private <T> T execute(int cacheTimeoutMs, Func1<PreparedStatement, T> executor, Func1<String, String> sqlPreprocess, String sql, Object... args) throws Exception {
+    private <T> T execute(int cacheTimeoutMs, Func1<PreparedStatement, T> executor, Func1<List<T>, T> merger, Func1<String, String> sqlPreprocess, String sql, Object... args) throws Exception {
         if (args.length == 1 && args[0] instanceof ArrayList) {
             args = ((ArrayList) args[0]).toArray();
         }
 
+        //事务中写入过的数据对其他连接还不可见，不读写缓存
+        if (cacheTimeoutMs <= 0 || !transactionWrites.isEmpty()) {
+            return execute(executor, merger, sqlPreprocess, sql, new Ref<>(), false, args);
+        }
+
         //try get from cache
-        CompositeKey key = null;
+        var keyitems = new ArrayList<Object>();
+        keyitems.add(this.connStr);
+        keyitems.add(sql);
+        keyitems.add(executor.getClass()); //不同调用处的执行器返回不同类型的结果
+        for (Object arg : args) {
+            keyitems.add(arg);
+        }
+        var key = new CompositeKey(keyitems.toArray());
+
+        //后台刷新使用连接池的连接，事务中不使用过期数据
+        var stale = inTransaction() ? 0 : getMaxStaleMs(sql);
+        var data = new Ref<T>();
+        if (stale <= 0 && defaultCache.tryGet(key, cacheTimeoutMs, data)) {
+            FXUtils.debug(DBUtils.class, sql + " found in cache");
+            return data.get();
+        }
 
-        if (cacheTimeoutMs > 0) {
-            ArrayList keyitems = new ArrayList<>();
-            keyitems.add(this.connStr);
-            keyitems.add(sql);
-            for (Object arg : args) {
-                keyitems.add(arg);
-            }
-            key = new CompositeKey(keyitems.toArray());
-            var data = new Ref<T>();
-            if (defaultCache.tryGet(key, cacheTimeoutMs, data)) {
-                FXUtils.debug(DBUtils.class, sql + " found in cache");
-                return data.get();
-            }
+        //同一key同时只执行一次，其他线程等待共享结果
+        var sqlArgs = args;
+        Func<T> loader = () -> {
+            var cacheVersion = defaultCache.getVersion();
+            var plan = new Ref<SqlPlan>();
+            var result = execute(executor, merger, sqlPreprocess, sql, plan, stale > 0, sqlArgs);
+
+            //do cache
+            defaultCache.put(key, result, cacheVersion, getReadTags(sql, plan.get()));
+            FXUtils.debug(DBUtils.class, "SQL请求缓存%dms：%s", cacheTimeoutMs, sql);
+            return result;
+        };
+
+        if (stale > 0) {
+            return defaultCache.getOrLoad(key, cacheTimeoutMs, stale, getRefreshExecutor(), loader);
         }
+        return defaultCache.getOrLoad(key, cacheTimeoutMs, loader);
+    }
 
-        //
+    /**
+     * 执行sql，不使用缓存
+     * @param plan 返回执行的sql的编译结果
+     * @param pooled 是否总是使用连接池的连接，后台刷新缓存时不能使用之后开始的事务的连接
+     */
+    private <T> T execute(Func1<PreparedStatement, T> executor, Func1<List<T>, T> merger, Func1<String, String> sqlPreprocess, String sql, Ref<SqlPlan> plan, boolean pooled, Object... args) throws Exception {
         Connection conn = null;
         T result = null;
         var realSql = new Ref<String>();
         try {
-            conn = getConnection();
+            conn = pooled ? createConnection() : getConnection();
             long start = new Date().getTime();
-            try(var pstmt = makeStatement(conn, sql, sqlPreprocess, realSql, args)) {
-                result = executor.invoke(pstmt);
+            var parts = expand(bindSql(conn, sql, sqlPreprocess, args));
+            plan.set(parts.get(0).plan);
+            if (parts.size() > 1 && merger == null) {
+                throw new SQLException("IN列表参数超过数据库上限：" + info.getMaxInListSize() + "，需要分批查询时请使用executeTableInBatches");
             }
+            var results = new ArrayList<T>(parts.size());
+            for (var part : parts) {
+                realSql.set(part.plan.sql);
+                try(var pstmt = createStatement(conn, part)) {
+                    results.add(executor.invoke(pstmt));
+                }
+            }
+            result = results.size() == 1 ? results.get(0) : merger.invoke(results);
             long end = new Date().getTime();
             FXUtils.debug(DBUtils.class, realSql.get()  + " sql time:" + (end - start) + "ms");
         } catch (Exception ex) {
             System.out.println(realSql.get());
             throw ex;
         } finally {
-            if (conn != null && !this.inTransaction() && !conn.isClosed()) {
-                conn.close();
+            if (conn != null && (pooled || !this.inTransaction())) {
+                conn.close();//归还连接池
+            }
+            if (plan.get() != null) {
+                invalidateWrites(plan.get());
             }
-        }
-
-        //do cache
-        if (key != null) {
-            defaultCache.put(key, result);
-            FXUtils.debug(DBUtils.class, "SQL请求缓存%dms：%s", cacheTimeoutMs, sql);
         }
 
         return result;
@@ -551,16 +1216,47 @@ public class DBUtils {
             return 0;
         }
 
-        if (isNumeric(cache)) {
-            return Integer.valueOf(cache);
+        return getConfigMs(cache, "缓存时间");
+
+    }
+
+    /**
+     * sql允许使用过期缓存的毫秒数，sql配置有stale属性时使用配置的值，否则使用{@link #maxStaleMs}
+     * @param sqlKey sql语句或sql key
+     * @return
+     * @throws Exception
+     */
+    public int getMaxStaleMs(String sqlKey) throws Exception {
+        var stale = getConfigAttr(sqlKey, "stale");
+        if (FXUtils.isNullOrEmpty(stale)) {
+            return maxStaleMs;
+        }
+        return getConfigMs(stale, "过期缓存时间");
+    }
+
+    /**
+     * 毫秒数配置：数字，或者配置毫秒数的key
+     */
+    private static int getConfigMs(String value, String name) throws Exception {
+        if (isNumeric(value)) {
+            return Integer.valueOf(value);
         }
 
-        cache = sqlConfig.get(cache);
-        if (cache == null) {
-            throw new SQLException("没有找到缓存时间配置：" + cache);
+        var ms = sqlConfig.get(value);
+        if (ms == null) {
+            throw new SQLException("没有找到" + name + "配置：" + value);
         }
-        return Integer.valueOf(cache);
+        return Integer.valueOf(ms);
+    }
 
+    /**
+     * sql配置的属性，sql不是sql key时返回null
+     */
+    private static String getConfigAttr(String sql, String attr) {
+        if (sqlConfig == null || sql.contains(" ") || !sqlConfig.tryGet(sql, new Ref<>())) {
+            return null;
+        }
+        return sqlConfig.getAttr(sql, attr);
     }
 
     public <T> T executeValue(String sql, Object... args) throws Exception {
@@ -603,23 +1299,17 @@ public class DBUtils {
 
 
     public static <T> T makeEntity(Class<T> tEntity, DBRow row) throws Exception {
-        T result = tEntity.getConstructor().newInstance();
-        for (Field f : tEntity.getFields()) {
-            var col = row.table.getColumn(f.getName());
-            if (col != null) {
-                FXUtils.setMember(result, f, row.get(col), true);
-                //f.set(result, easyorm.utils.FXUtils.changeType(row.get(col), f.g));
-            }
-        }
-        return result;
+        return EntityMapper.get(tEntity, row.table).map(row);
     }
 
     public static <T> T[] makeEntities(Class<T> tEntity, DBTable table) throws Exception
     {
-        var result = (T[])java.lang.reflect.Array.newInstance(tEntity, table.rows().length);
-        for(var i = 0; i < table.rows().length; i++)
+        var mapper = EntityMapper.get(tEntity, table);
+        var rows = table.rows();
+        var result = (T[])java.lang.reflect.Array.newInstance(tEntity, rows.length);
+        for(var i = 0; i < rows.length; i++)
         {
-            result[i] = makeEntity(tEntity, table.rows(i));
+            result[i] = mapper.map(rows[i]);
         }
         return result;
     }
@@ -659,19 +1349,58 @@ public class DBUtils {
     }
 
     public <T> T first(Class<T> TEntity, int cacheTimeoutMs, String sql, Object... args) throws Exception {
-        T[] items = get(TEntity, cacheTimeoutMs, sql, args);
-        if (items.length == 0) {
-            return null;
+        if (cacheTimeoutMs > 0) {
+            T[] items = get(TEntity, cacheTimeoutMs, sql, args);
+            if (items.length == 0) {
+                return null;
+            }
+            return items[0];
         }
-        return items[0];
+
+        //不缓存时只读取一行
+        return execute(0,
+                pstmt -> {
+                    pstmt.setMaxRows(1);
+                    try (var rs = pstmt.executeQuery()) {
+                        var mapper = EntityMapper.get(TEntity, new DBTable(rs.getMetaData()));
+                        return rs.next() ? mapper.map(rs) : null;
+                    }
+                },
+                null,
+                null,
+                sql,
+                args
+        );
     }
 
     public <T> T[] get(Class<T> TEntity, String sql, Object... args) throws Exception {
         return get(TEntity, 0, sql, args);
     }
 
+    @SuppressWarnings("unchecked")
     public <T> T[] get(Class<T> TEntity, int cacheTimeoutMs, String sql, Object... args) throws Exception {
-        return makeEntities(TEntity, executeTable(cacheTimeoutMs, sql, args));
+        if (cacheTimeoutMs > 0) {
+            //缓存的是数据表，不同实体类型可以共用
+            return makeEntities(TEntity, executeTable(cacheTimeoutMs, sql, args));
+        }
+
+        //不缓存时直接从ResultSet创建实体对象
+        return execute(0,
+                pstmt -> {
+                    try (var rs = pstmt.executeQuery()) {
+                        var mapper = EntityMapper.get(TEntity, new DBTable(rs.getMetaData()));
+                        var result = new ArrayList<T>();
+                        while (rs.next()) {
+                            result.add(mapper.map(rs));
+                        }
+                        return result.toArray((T[]) java.lang.reflect.Array.newInstance(TEntity, result.size()));
+                    }
+                },
+                null,
+                null,
+                sql,
+                args
+        );
     }
 
 
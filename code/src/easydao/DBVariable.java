@@ -7,6 +7,8 @@ package easydao;/*
 
 import easydao.utils.*;
 
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * 数据库变量
  * @author ryu
@@ -25,6 +27,21 @@ public class DBVariable
     private Object value;
     private Func valueGetter;
     private String sqlExp;
+    private long cacheMs = 0;
+    private ConcurrentHashMap<String, CachedValue> cachedValues = null;
+
+    /**
+     * sql表达式的缓存值
+     */
+    private static class CachedValue {
+        final Object value;
+        final long time;
+
+        CachedValue(Object value, long time) {
+            this.value = value;
+            this.time = time;
+        }
+    }
 //    boolean valueCached = false; //valueCache 造成currentUserId等公共变量或valueGetter变化不能正确反映
 
 
@@ -41,7 +58,13 @@ public class DBVariable
                 if (db == null) {
                     throw new IllegalArgumentException("请传入DB访问对象");
                 }
-                return db.executeValue(sqlExp);
+                var cached = new Ref<Object>();
+                if (tryGetCached(db, cached)) {
+                    return cached.get();
+                }
+                var result = db.executeValue(sqlExp);
+                setCached(db, result);
+                return result;
 //                break;
             case TYPE_FIXED_VALUE:
                 return value;
@@ -68,6 +91,75 @@ public class DBVariable
         this.type = DBVariableType.TYPE_VALUE_GETTER;
     }
 
+    /**
+     * 创建通过sql表达式取值的参数，每次使用都执行sql表达式
+     * @param name 参数名
+     * @param sqlExp 返回单个值的sql语句或sql key
+     * @return
+     */
+    public static DBVariable sqlExp(String name, String sqlExp) {
+        return sqlExp(name, sqlExp, 0);
+    }
+
+    /**
+     * 创建通过sql表达式取值的参数。
+     * 同一条sql用到多个sql表达式参数时，这些参数在一次db访问中取值。
+     * @param name 参数名
+     * @param sqlExp 返回单个值的sql语句或sql key
+     * @param cacheMs 值的缓存毫秒数，缓存按连接字符串区分，0表示不缓存
+     * @return
+     */
+    public static DBVariable sqlExp(String name, String sqlExp, long cacheMs) {
+        var result = new DBVariable(name, (Object) null);
+        result.type = DBVariableType.TYPE_VALUE_SQLEXP;
+        result.sqlExp = sqlExp;
+        result.cacheMs = cacheMs;
+        if (cacheMs > 0) {
+            result.cachedValues = new ConcurrentHashMap<>();
+        }
+        return result;
+    }
+
+    /**
+     * 参数类型
+     * @return
+     */
+    public DBVariableType getType() {
+        return type;
+    }
+
+    /**
+     * sql表达式，不是sql表达式参数时返回null
+     * @return
+     */
+    public String getSqlExp() {
+        return sqlExp;
+    }
+
+    /**
+     * 读取未超时的sql表达式缓存值
+     */
+    boolean tryGetCached(DBUtils db, Ref<Object> value) {
+        if (cachedValues == null) {
+            return false;
+        }
+        var cached = cachedValues.get(db.connStr);
+        if (cached == null || System.currentTimeMillis() - cached.time > cacheMs) {
+            return false;
+        }
+        value.set(cached.value);
+        return true;
+    }
+
+    /**
+     * 缓存sql表达式的值
+     */
+    void setCached(DBUtils db, Object value) {
+        if (cachedValues != null) {
+            cachedValues.put(db.connStr, new CachedValue(value, System.currentTimeMillis()));
+        }
+    }
+
     @Override 
     public String toString()
     {
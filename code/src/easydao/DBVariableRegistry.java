@@ -0,0 +1,255 @@
+package easydao;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * sql参数表
+ * 按名称索引参数，同名参数后加入的覆盖先加入的。
+ * 修改时复制整个表，读取不需要加锁，适合很少修改、频繁读取的公共参数。
+ * 实现了List接口，可以像原来的ArrayList一样按位置访问、遍历和修改。
+ * 遍历的是开始遍历时的参数表，遍历期间其他线程的修改不会抛出ConcurrentModificationException。
+ *
+ * @author ryu
+ */
+public class DBVariableRegistry extends AbstractList<DBVariable> implements RandomAccess {
+
+    private static class Snapshot {
+        final HashMap<String, DBVariable> map = new HashMap<>();
+        final DBVariable[] array;
+
+        Snapshot(ArrayList<DBVariable> list) {
+            this.array = list.toArray(new DBVariable[0]);
+            for (var variable : array) {
+                map.put(variable.name, variable);
+            }
+        }
+    }
+
+    private volatile Snapshot snapshot = new Snapshot(new ArrayList<>());
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * 按位置插入参数，先移除同名参数
+     */
+    private void insert(int index, DBVariable variable) {
+        var list = copy();
+        for (var i = 0; i < list.size(); i++) {
+            if (list.get(i).name.equals(variable.name)) {
+                list.remove(i);
+                if (i < index) {
+                    index--;
+                }
+                break;
+            }
+        }
+        list.add(Math.min(index, list.size()), variable);
+        snapshot = new Snapshot(list);
+    }
+
+    private ArrayList<DBVariable> copy() {
+        var array = snapshot.array;
+        var list = new ArrayList<DBVariable>(array.length + 1);
+        for (var variable : array) {
+            list.add(variable);
+        }
+        return list;
+    }
+
+    /**
+     * 加入参数，替换同名参数
+     * @param variable
+     * @return
+     */
+    @Override
+    public boolean add(DBVariable variable) {
+        lock.lock();
+        try {
+            insert(Integer.MAX_VALUE, variable);
+            modCount++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 在指定位置加入参数，替换同名参数
+     */
+    @Override
+    public void add(int index, DBVariable variable) {
+        lock.lock();
+        try {
+            if (index < 0 || index > size()) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            insert(index, variable);
+            modCount++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 替换指定位置的参数，表中其他位置的同名参数被移除
+     */
+    @Override
+    public DBVariable set(int index, DBVariable variable) {
+        lock.lock();
+        try {
+            var list = copy();
+            var result = list.get(index);
+            list.set(index, variable);
+            for (var i = 0; i < list.size(); i++) {
+                if (i != index && list.get(i).name.equals(variable.name)) {
+                    list.remove(i);
+                    modCount++;
+                    break;
+                }
+            }
+            snapshot = new Snapshot(list);
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public DBVariable remove(int index) {
+        lock.lock();
+        try {
+            var list = copy();
+            var result = list.remove(index);
+            snapshot = new Snapshot(list);
+            modCount++;
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 移除参数
+     * @param name 参数名
+     * @return 被移除的参数，没有找到返回null
+     */
+    public DBVariable remove(String name) {
+        lock.lock();
+        try {
+            var variable = snapshot.map.get(name);
+            if (variable == null) {
+                return null;
+            }
+            remove(variable);
+            return variable;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 移除参数
+     * @param variable
+     * @return
+     */
+    public boolean remove(DBVariable variable) {
+        lock.lock();
+        try {
+            var array = snapshot.array;
+            for (var i = 0; i < array.length; i++) {
+                if (array[i] == variable) {
+                    remove(i);
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 移除所有参数
+     */
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            snapshot = new Snapshot(new ArrayList<>());
+            modCount++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public DBVariable get(int index) {
+        return snapshot.array[index];
+    }
+
+    /**
+     * 按名称获取参数
+     * @param name
+     * @return 没有找到返回null
+     */
+    public DBVariable get(String name) {
+        return snapshot.map.get(name);
+    }
+
+    public boolean contains(String name) {
+        return snapshot.map.containsKey(name);
+    }
+
+    @Override
+    public int size() {
+        return snapshot.array.length;
+    }
+
+    @Override
+    public Iterator<DBVariable> iterator() {
+        var array = snapshot.array;
+        return new Iterator<DBVariable>() {
+            int index = 0;
+            DBVariable last;
+
+            @Override
+            public boolean hasNext() {
+                return index < array.length;
+            }
+
+            @Override
+            public DBVariable next() {
+                if (index >= array.length) {
+                    throw new NoSuchElementException();
+                }
+                return last = array[index++];
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                DBVariableRegistry.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+    @Override
+    public DBVariable[] toArray() {
+        return snapshot.array.clone();
+    }
+
+    /**
+     * 当前所有参数，调用者不能修改返回的数组
+     */
+    DBVariable[] variables() {
+        return snapshot.array;
+    }
+}
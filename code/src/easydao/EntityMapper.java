@@ -0,0 +1,172 @@
+package easydao;
+
+import easydao.utils.Func1;
+import easydao.utils.TypeConverters;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 编译后的实体映射器
+ * 每个实体类型和结果列布局只编译一次：预先找到列对应的字段，用MethodHandle创建对象和设置字段，不再逐行反射。
+ * 每个字段按值的类型缓存{@link TypeConverters}的转换函数，值的类型不变时直接复用。
+ *
+ * @author ryu
+ */
+class EntityMapper<T> {
+
+    /**
+     * 缓存的最大数量，超过后清空缓存
+     */
+    static final int MAX_CACHED_MAPPERS = 10000;
+
+    private static final ConcurrentHashMap<Class<?>, ConcurrentHashMap<String, EntityMapper<?>>> mappers = new ConcurrentHashMap<>();
+
+    /**
+     * 字段的转换函数，创建后不再修改，多线程共享时整体替换
+     */
+    private static class Converter {
+        final Class<?> type;
+        final Func1<Object, Object> convert;
+
+        Converter(Class<?> type, Func1<Object, Object> convert) {
+            this.type = type;
+            this.convert = convert;
+        }
+    }
+
+    private final MethodHandle constructor;
+
+    /**
+     * 每个映射字段对应的列索引
+     */
+    private final int[] columns;
+    private final Field[] fields;
+    private final MethodHandle[] setters;
+    private final Converter[] converters;
+
+    private EntityMapper(Class<T> type, DBTable table) throws Exception {
+        var lookup = MethodHandles.lookup();
+        var ctor = type.getConstructor();
+        ctor.setAccessible(true);
+        constructor = lookup.unreflectConstructor(ctor).asType(MethodType.methodType(Object.class));
+
+        var columns = new ArrayList<Integer>();
+        var fields = new ArrayList<Field>();
+        var setters = new ArrayList<MethodHandle>();
+        for (var f : type.getFields()) {
+            var col = table.getColumn(f.getName());
+            if (col == null || Modifier.isStatic(f.getModifiers())) {
+                continue;
+            }
+            f.setAccessible(true);
+            columns.add(col.index);
+            fields.add(f);
+            setters.add(lookup.unreflectSetter(f).asType(MethodType.methodType(void.class, Object.class, Object.class)));
+        }
+
+        this.columns = columns.stream().mapToInt(i -> i).toArray();
+        this.fields = fields.toArray(new Field[0]);
+        this.setters = setters.toArray(new MethodHandle[0]);
+        this.converters = new Converter[this.fields.length];
+    }
+
+    /**
+     * 获取实体类型在表的列布局上的映射器，同样的类型和列布局只编译一次。
+     * @param type 实体类型
+     * @param table 数据表，只使用列信息
+     * @return
+     * @throws Exception
+     */
+    @SuppressWarnings("unchecked")
+    static <T> EntityMapper<T> get(Class<T> type, DBTable table) throws Exception {
+        var byLayout = mappers.computeIfAbsent(type, k -> new ConcurrentHashMap<>());
+        var layout = table.getLayoutKey();
+        var result = (EntityMapper<T>) byLayout.get(layout);
+        if (result == null) {
+            result = new EntityMapper<>(type, table);
+            if (byLayout.size() >= MAX_CACHED_MAPPERS) {
+                byLayout.clear();
+            }
+            byLayout.put(layout, result);
+        }
+        return result;
+    }
+
+    /**
+     * 把行映射为实体对象
+     * @param row
+     * @return
+     * @throws Exception
+     */
+    T map(DBRow row) throws Exception {
+        var result = create();
+        for (var i = 0; i < setters.length; i++) {
+            var value = row.get(columns[i]);
+            set(result, i, value == null ? null : convert(i, value));
+        }
+        return result;
+    }
+
+    /**
+     * 把ResultSet的当前行映射为实体对象，不创建中间的数据表。
+     * 和{@link #map(DBRow)}一样用getObject读取并通过{@link TypeConverters}转换，是否缓存查询结果不影响转换结果。
+     * ResultSet的列布局必须与编译映射器时的表相同。
+     * @param rs
+     * @return
+     * @throws Exception
+     */
+    T map(ResultSet rs) throws Exception {
+        var result = create();
+        for (var i = 0; i < setters.length; i++) {
+            var value = rs.getObject(columns[i] + 1);
+            set(result, i, value == null ? null : convert(i, value));
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T create() throws Exception {
+        try {
+            return (T) constructor.invokeExact();
+        } catch (Exception | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new Exception(ex);
+        }
+    }
+
+    private void set(T entity, int index, Object value) throws Exception {
+        if (value == null && fields[index].getType().isPrimitive()) {
+            throw new IllegalArgumentException("不能把null赋值给基本类型字段：" + fields[index].getName());
+        }
+        try {
+            setters[index].invokeExact((Object) entity, value);
+        } catch (Exception | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new Exception(ex);
+        }
+    }
+
+    private Object convert(int index, Object value) throws Exception {
+        var type = value.getClass();
+        var converter = converters[index];
+        if (converter == null || converter.type != type) {
+            var target = fields[index].getType();
+            var convert = TypeConverters.get(type, target);
+            if (convert == null) {
+                throw new Exception("尚未支持的类型转换" + type.getSimpleName() + "到" + target.getSimpleName());
+            }
+            converter = new Converter(type, convert);
+            converters[index] = converter;
+        }
+        return converter.convert.invoke(value);
+    }
+}
@@ -0,0 +1,80 @@
+package easydao;
+
+import java.math.BigDecimal;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * sql参数绑定器注册表
+ * 按类型查找的结果缓存，注册新的绑定器后清空。
+ *
+ * @author ryu
+ */
+class ParamBinderRegistry {
+
+    private static final ConcurrentHashMap<Class<?>, DBParamBinder> registered = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Class<?>, DBParamBinder> resolved = new ConcurrentHashMap<>();
+
+    /**
+     * 注册表版本，注册新的绑定器后递增，sql计划中缓存的绑定器随之失效
+     */
+    static volatile int version = 0;
+
+    static {
+        registered.put(String.class, (s, i, v) -> s.setString(i, (String) v));
+        registered.put(Character.class, (s, i, v) -> s.setString(i, v.toString()));
+        registered.put(Integer.class, (s, i, v) -> s.setInt(i, (Integer) v));
+        registered.put(Long.class, (s, i, v) -> s.setLong(i, (Long) v));
+        registered.put(Short.class, (s, i, v) -> s.setShort(i, (Short) v));
+        registered.put(Byte.class, (s, i, v) -> s.setByte(i, (Byte) v));
+        registered.put(Double.class, (s, i, v) -> s.setDouble(i, (Double) v));
+        registered.put(Float.class, (s, i, v) -> s.setFloat(i, (Float) v));
+        registered.put(Boolean.class, (s, i, v) -> s.setBoolean(i, (Boolean) v));
+        registered.put(BigDecimal.class, (s, i, v) -> s.setBigDecimal(i, (BigDecimal) v));
+        registered.put(byte[].class, (s, i, v) -> s.setBytes(i, (byte[]) v));
+        registered.put(Timestamp.class, (s, i, v) -> s.setTimestamp(i, (Timestamp) v));
+        registered.put(java.sql.Date.class, (s, i, v) -> s.setDate(i, (java.sql.Date) v));
+        registered.put(Time.class, (s, i, v) -> s.setTime(i, (Time) v));
+        registered.put(java.util.Date.class, (s, i, v) -> s.setTimestamp(i, new Timestamp(((java.util.Date) v).getTime())));
+        registered.put(LocalDate.class, (s, i, v) -> s.setDate(i, java.sql.Date.valueOf((LocalDate) v)));
+        registered.put(LocalDateTime.class, (s, i, v) -> s.setTimestamp(i, Timestamp.valueOf((LocalDateTime) v)));
+        registered.put(LocalTime.class, (s, i, v) -> s.setTime(i, Time.valueOf((LocalTime) v)));
+        registered.put(Instant.class, (s, i, v) -> s.setTimestamp(i, Timestamp.from((Instant) v)));
+        //带时区的时间交给驱动绑定，转成Timestamp会丢掉时区
+        registered.put(OffsetDateTime.class, (s, i, v) -> s.setObject(i, v));
+        registered.put(ZonedDateTime.class, (s, i, v) -> s.setObject(i, v));
+    }
+
+    private ParamBinderRegistry() {
+    }
+
+    static synchronized void register(Class<?> type, DBParamBinder binder) {
+        registered.put(type, binder);
+        resolved.clear();
+        version++;
+    }
+
+    static DBParamBinder get(Class<?> type) {
+        var result = resolved.get(type);
+        if (result != null) {
+            return result;
+        }
+        result = DBParamBinder.OBJECT;
+        for (var c = type; c != null; c = c.getSuperclass()) {
+            var binder = registered.get(c);
+            if (binder != null) {
+                result = binder;
+                break;
+            }
+        }
+        resolved.put(type, result);
+        return result;
+    }
+}
@@ -0,0 +1,104 @@
+package easydao;
+
+/**
+ * 连接池配置
+ * 每个连接字符串可以有独立的配置，需要在连接池第一次使用前通过{@link DBUtils#setPoolConfig(String, PoolConfig)}设置。
+ *
+ * @author ryu
+ */
+public class PoolConfig {
+
+    /**
+     * 池最小连接数量
+     */
+    public int minSize = 5;
+
+    /**
+     * 池最大连接数（同时借出的连接数上限），不大于db自身的限制
+     */
+    public int maxSize = 50;
+
+    /**
+     * 等待池中连接的超时毫秒数
+     */
+    public long acquireTimeoutMs = 30000;
+
+    /**
+     * 空闲连接超时毫秒数，超时的空闲连接被关闭。0表示不关闭空闲连接。
+     */
+    public long idleTimeoutMs = 30000;
+
+    /**
+     * 连接最长使用毫秒数，超过后连接在空闲时被关闭并重建。0表示不限制。
+     */
+    public long maxLifetimeMs = 1000 * 60 * 30;
+
+    /**
+     * 空闲连接保活检查间隔毫秒数，后台定期用Connection.isValid检查空闲连接。0表示不检查。
+     */
+    public long keepaliveMs = 1000 * 60;
+
+    /**
+     * 借出前检查连接的空闲毫秒数，空闲超过该时间的连接在借出前用Connection.isValid检查。
+     */
+    public long validateIdleMs = 500;
+
+    /**
+     * Connection.isValid的超时秒数
+     */
+    public int validationTimeoutSeconds = 3;
+
+    /**
+     * 每个连接缓存的PreparedStatement数量，0表示不缓存
+     */
+    public int statementCacheSize = 100;
+
+    /**
+     * 在每个新连接上预先准备的sql语句或sql key，动态sql（包含大括号）不会被预先准备。
+     */
+    public String[] warmUpSqls = new String[0];
+
+    /**
+     * 补充连接时同时创建的最大连接数
+     */
+    public int openParallelism = 4;
+
+    public PoolConfig() {
+
+    }
+
+    public PoolConfig(int minSize, int maxSize) {
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * 复制配置，连接池使用配置的副本，创建后不受原配置修改的影响。
+     * @return
+     */
+    public PoolConfig copy() {
+        var result = new PoolConfig(minSize, maxSize);
+        result.acquireTimeoutMs = acquireTimeoutMs;
+        result.idleTimeoutMs = idleTimeoutMs;
+        result.maxLifetimeMs = maxLifetimeMs;
+        result.keepaliveMs = keepaliveMs;
+        result.validateIdleMs = validateIdleMs;
+        result.validationTimeoutSeconds = validationTimeoutSeconds;
+        result.statementCacheSize = statementCacheSize;
+        result.openParallelism = openParallelism;
+        result.warmUpSqls = warmUpSqls == null ? new String[0] : warmUpSqls.clone();
+        return result;
+    }
+
+    void validate() {
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+            throw new IllegalArgumentException(String.format("连接池大小配置错误：min=%d, max=%d", minSize, maxSize));
+        }
+        if (acquireTimeoutMs < 0 || idleTimeoutMs < 0 || maxLifetimeMs < 0 || keepaliveMs < 0 || validateIdleMs < 0 || validationTimeoutSeconds < 0 || statementCacheSize < 0) {
+            throw new IllegalArgumentException("连接池配置不能为负数");
+        }
+        if (openParallelism < 1) {
+            throw new IllegalArgumentException("连接池并行创建连接数不能小于1：" + openParallelism);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package easydao;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 连接池大小控制器
+ * 记录获取连接的等待时间和借出连接的峰值，每个维护周期根据测量结果计算连接池的目标大小。
+ * 扩大立即生效，收缩需要连续多个周期都偏大才生效，避免突发流量造成连接池反复伸缩。
+ *
+ * @author ryu
+ */
+public class PoolSizer {
+
+    /**
+     * 一次调整决策
+     */
+    public static class Decision {
+        /**
+         * 决策时间
+         */
+        public long time;
+        /**
+         * 调整前的目标大小
+         */
+        public int from;
+        /**
+         * 调整后的目标大小
+         */
+        public int to;
+        /**
+         * 周期内借出连接数的峰值
+         */
+        public int peakBorrowed;
+        /**
+         * 获取连接平均等待毫秒数（平滑后）
+         */
+        public double averageWaitMs;
+        /**
+         * 借出连接峰值占目标大小的比例
+         */
+        public double utilisation;
+        /**
+         * 调整原因
+         */
+        public String reason;
+
+        @Override
+        public String toString() {
+            return String.format("%d->%d peak=%d wait=%.2fms util=%.2f %s", from, to, peakBorrowed, averageWaitMs, utilisation, reason);
+        }
+    }
+
+    /**
+     * 目标大小相对借出峰值的余量比例
+     */
+    public double headroom = 0.2;
+
+    /**
+     * 平均等待时间超过该毫秒数时扩大连接池
+     */
+    public double waitThresholdMs = 2;
+
+    /**
+     * 连续多少个周期偏大才收缩
+     */
+    public int shrinkPeriods = 6;
+
+    /**
+     * 测量值的平滑系数，越大越重视最近的周期
+     */
+    public double smoothing = 0.3;
+
+    /**
+     * 保留的决策记录数量
+     */
+    public int historySize = 100;
+
+    public final int minSize;
+    public final int maxSize;
+
+    private volatile int target;
+    private volatile double averageWaitMs = 0;
+    private volatile double averagePeak = 0;
+    private int oversizedPeriods = 0;
+
+    private final LongAdder acquires = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder opened = new LongAdder();
+    private final AtomicInteger peakBorrowed = new AtomicInteger();
+    private final ConcurrentLinkedDeque<Decision> decisions = new ConcurrentLinkedDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    PoolSizer(int minSize, int maxSize) {
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.target = Math.min(maxSize, Math.max(minSize * 2, 1));
+    }
+
+    /**
+     * 连接池当前的目标大小
+     * @return
+     */
+    public int getTarget() {
+        return target;
+    }
+
+    /**
+     * 获取连接平均等待毫秒数（平滑后）
+     * @return
+     */
+    public double getAverageWaitMs() {
+        return averageWaitMs;
+    }
+
+    /**
+     * 最近的调整决策，按时间顺序排列
+     * @return
+     */
+    public Decision[] getDecisions() {
+        return decisions.toArray(new Decision[0]);
+    }
+
+    /**
+     * 记录一次获取连接
+     * @param waitNanos 等待纳秒数，包括等待其它连接归还和创建新连接的时间
+     * @param opened 是否因为池中没有空闲连接而创建了新连接
+     * @param borrowed 获取后借出的连接数
+     */
+    void recordAcquire(long waitNanos, boolean opened, int borrowed) {
+        acquires.increment();
+        this.waitNanos.add(waitNanos);
+        if (opened) {
+            this.opened.increment();
+        }
+        peakBorrowed.accumulateAndGet(borrowed, Math::max);
+    }
+
+    /**
+     * 结束一个测量周期，计算新的目标大小
+     * @param borrowed 当前借出的连接数
+     * @return 新的目标大小
+     */
+    int update(int borrowed) {
+        lock.lock();
+        try {
+            return doUpdate(borrowed);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int doUpdate(int borrowed) {
+        var count = acquires.sumThenReset();
+        var wait = waitNanos.sumThenReset();
+        var misses = opened.sumThenReset();
+        var peak = Math.max(borrowed, peakBorrowed.getAndSet(borrowed));
+
+        var waitMs = count == 0 ? 0 : wait / 1e6 / count;
+        averageWaitMs = smoothing * waitMs + (1 - smoothing) * averageWaitMs;
+        averagePeak = Math.max(peak, smoothing * peak + (1 - smoothing) * averagePeak);
+
+        var from = target;
+        var desired = (int) Math.ceil(averagePeak * (1 + headroom));
+        String reason = null;
+        if (averageWaitMs > waitThresholdMs && (misses > 0 || peak >= from)) {
+            //等待时间过长，按比例扩大
+            desired = Math.max(desired, (int) Math.ceil(from * (1 + headroom)) + 1);
+            reason = "等待时间过长";
+        }
+        desired = Math.max(minSize, Math.min(maxSize, desired));
+
+        if (desired > from) {
+            oversizedPeriods = 0;
+            target = desired;
+            if (reason == null) {
+                reason = "借出峰值增加";
+            }
+        } else if (desired < from && ++oversizedPeriods >= shrinkPeriods) {
+            oversizedPeriods = 0;
+            target = Math.max(desired, from - Math.max(1, (from - desired) / 2));
+            reason = "连接池持续偏大";
+        } else if (desired >= from) {
+            oversizedPeriods = 0;
+        }
+
+        if (target != from) {
+            var decision = new Decision();
+            decision.time = System.currentTimeMillis();
+            decision.from = from;
+            decision.to = target;
+            decision.peakBorrowed = peak;
+            decision.averageWaitMs = averageWaitMs;
+            decision.utilisation = from == 0 ? 0 : (double) peak / from;
+            decision.reason = reason;
+            decisions.offerLast(decision);
+            while (decisions.size() > historySize) {
+                decisions.pollFirst();
+            }
+        }
+
+        return target;
+    }
+}
@@ -0,0 +1,122 @@
+package easydao;
+
+import easydao.utils.SizeEstimator;
+
+import java.lang.reflect.Array;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * 基本类型的列数据
+ * 直接从ResultSet读入可增长的int[]、long[]或double[]，null值记录在位图中，不装箱。
+ * 缓存的是这个对象，每次按null处理方式复制出新的数组返回，调用者可以修改返回的数组。
+ *
+ * @author ryu
+ */
+class PrimitiveColumn implements SizeEstimator.Sized {
+
+    /**
+     * int[]、long[]或double[]，长度等于行数，null的位置为0
+     */
+    private final Object values;
+    private final BitSet nulls;
+    private final int size;
+
+    private PrimitiveColumn(Object values, BitSet nulls, int size) {
+        this.values = values;
+        this.nulls = nulls;
+        this.size = size;
+    }
+
+    static PrimitiveColumn readInts(ResultSet rs) throws SQLException {
+        var values = new int[64];
+        var nulls = new BitSet();
+        var size = 0;
+        while (rs.next()) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size] = rs.getInt(1);
+            if (rs.wasNull()) {
+                nulls.set(size);
+            }
+            size++;
+        }
+        return new PrimitiveColumn(Arrays.copyOf(values, size), nulls, size);
+    }
+
+    static PrimitiveColumn readLongs(ResultSet rs) throws SQLException {
+        var values = new long[64];
+        var nulls = new BitSet();
+        var size = 0;
+        while (rs.next()) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size] = rs.getLong(1);
+            if (rs.wasNull()) {
+                nulls.set(size);
+            }
+            size++;
+        }
+        return new PrimitiveColumn(Arrays.copyOf(values, size), nulls, size);
+    }
+
+    static PrimitiveColumn readDoubles(ResultSet rs) throws SQLException {
+        var values = new double[64];
+        var nulls = new BitSet();
+        var size = 0;
+        while (rs.next()) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size] = rs.getDouble(1);
+            if (rs.wasNull()) {
+                nulls.set(size);
+            }
+            size++;
+        }
+        return new PrimitiveColumn(Arrays.copyOf(values, size), nulls, size);
+    }
+
+    @Override
+    public long estimateSize() {
+        return 32 + SizeEstimator.estimate(values) + nulls.size() / 8;
+    }
+
+    int[] toIntArray(DBNullPolicy policy) throws SQLException {
+        return (int[]) toArray(policy);
+    }
+
+    long[] toLongArray(DBNullPolicy policy) throws SQLException {
+        return (long[]) toArray(policy);
+    }
+
+    double[] toDoubleArray(DBNullPolicy policy) throws SQLException {
+        return (double[]) toArray(policy);
+    }
+
+    private Object toArray(DBNullPolicy policy) throws SQLException {
+        if (nulls.isEmpty() || policy == DBNullPolicy.ZERO) {
+            var result = Array.newInstance(values.getClass().getComponentType(), size);
+            System.arraycopy(values, 0, result, 0, size);
+            return result;
+        }
+        if (policy == DBNullPolicy.THROW) {
+            throw new SQLException("列中第" + (nulls.nextSetBit(0) + 1) + "行为null");
+        }
+
+        var result = Array.newInstance(values.getClass().getComponentType(), size - nulls.cardinality());
+        var count = 0;
+        var from = 0;
+        for (var i = nulls.nextSetBit(0); i >= 0; i = nulls.nextSetBit(i + 1)) {
+            System.arraycopy(values, from, result, count, i - from);
+            count += i - from;
+            from = i + 1;
+        }
+        System.arraycopy(values, from, result, count, size - from);
+        return result;
+    }
+}
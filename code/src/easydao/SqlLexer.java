@@ -0,0 +1,101 @@
+package easydao;
+
+/**
+ * sql词法工具
+ * 识别sql中的字符串、引号标识符和注释，这些内容中的字符不是sql语法的一部分，翻译sql时需要跳过。
+ *
+ * @author ryu
+ */
+class SqlLexer {
+
+    /**
+     * 如果sql在指定位置开始一个字符串、标识符或注释，返回其结束后的位置，否则返回原位置。
+     * <ul>
+     *     <li>'字符串'和"字符串"，两个连续引号表示引号本身</li>
+     *     <li>`标识符`，非MySQL语法中的[标识符]</li>
+     *     <li>-- 行注释，/* *&#47; 块注释，非MySQL语法中块注释可以嵌套</li>
+     *     <li>MySQL语法中字符串里的反斜杠转义下一个字符，# 开始行注释，-- 后面必须是空白字符</li>
+     * </ul>
+     * @param sql
+     * @param pos 位置
+     * @param mysql 是否使用MySQL语法
+     * @return 跳过的内容结束后的位置，未闭合的内容跳到sql末尾
+     */
+    static int skip(CharSequence sql, int pos, boolean mysql) {
+        var length = sql.length();
+        var c = sql.charAt(pos);
+        switch (c) {
+            case '\'':
+            case '"':
+                return skipQuoted(sql, pos, c, mysql);
+            case '`':
+                return skipQuoted(sql, pos, '`', false);
+            case '[':
+                return mysql ? pos : skipQuoted(sql, pos, ']', false);
+            case '#':
+                return mysql ? skipLine(sql, pos) : pos;
+            case '-':
+                //MySQL的--后面必须是空白字符才是注释
+                if (pos + 1 < length && sql.charAt(pos + 1) == '-'
+                        && (!mysql || pos + 2 >= length || Character.isWhitespace(sql.charAt(pos + 2)))) {
+                    return skipLine(sql, pos);
+                }
+                return pos;
+            case '/':
+                if (pos + 1 < length && sql.charAt(pos + 1) == '*') {
+                    return skipBlockComment(sql, pos, !mysql);
+                }
+                return pos;
+            default:
+                return pos;
+        }
+    }
+
+    /**
+     * 跳过块注释，非MySQL语法中块注释可以嵌套
+     */
+    private static int skipBlockComment(CharSequence sql, int pos, boolean nested) {
+        var length = sql.length();
+        var depth = 1;
+        for (var i = pos + 2; i + 1 < length; i++) {
+            var c = sql.charAt(i);
+            if (c == '*' && sql.charAt(i + 1) == '/') {
+                if (--depth == 0) {
+                    return i + 2;
+                }
+                i++;
+            } else if (nested && c == '/' && sql.charAt(i + 1) == '*') {
+                depth++;
+                i++;
+            }
+        }
+        return length;
+    }
+
+    private static int skipQuoted(CharSequence sql, int pos, char close, boolean backslashEscapes) {
+        var length = sql.length();
+        for (var i = pos + 1; i < length; i++) {
+            var c = sql.charAt(i);
+            if (c == '\\' && backslashEscapes) {
+                i++;
+            } else if (c == close) {
+                if (i + 1 < length && sql.charAt(i + 1) == close) {
+                    i++;
+                    continue;
+                }
+                return i + 1;
+            }
+        }
+        return length;
+    }
+
+    private static int skipLine(CharSequence sql, int pos) {
+        var length = sql.length();
+        for (var i = pos; i < length; i++) {
+            if (sql.charAt(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return length;
+    }
+}
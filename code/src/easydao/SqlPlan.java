@@ -0,0 +1,272 @@
+package easydao;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 编译后的sql
+ * 把sql中的?参数名翻译成jdbc的?占位符，并记录每个占位符对应的参数。字符串、引号标识符和注释中的内容不翻译。
+ * 同一sql只解析一次，执行时按占位符顺序取值绑定。
+ *
+ * @author ryu
+ */
+class SqlPlan {
+
+    /**
+     * 缓存的最大数量，超过后清空缓存
+     */
+    static final int MAX_CACHED_PLANS = 10000;
+
+    private static final ConcurrentHashMap<String, SqlPlan> plans = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, SqlPlan> mysqlPlans = new ConcurrentHashMap<>();
+
+    /**
+     * jdbc sql
+     */
+    final String sql;
+
+    /**
+     * sql引用的参数名，不重复
+     */
+    final String[] names;
+
+    /**
+     * 每个jdbc占位符对应的参数在names中的索引
+     */
+    final int[] slots;
+
+    /**
+     * 每个jdbc占位符在sql中的位置
+     */
+    private final int[] positions;
+
+    /**
+     * 展开集合参数后的计划，key为每个参数展开的元素数
+     */
+    private final ConcurrentHashMap<String, SqlPlan> expanded = new ConcurrentHashMap<>();
+
+    /**
+     * 每个jdbc占位符上次绑定时选择的绑定器，按值的类型复用
+     */
+    private final SlotBinder[] binders;
+
+    /**
+     * 占位符的绑定器，创建后不再修改，多线程共享计划时整体替换
+     */
+    private static class SlotBinder {
+        final Class<?> type;
+        final int version;
+        final DBParamBinder binder;
+
+        SlotBinder(Class<?> type, int version, DBParamBinder binder) {
+            this.type = type;
+            this.version = version;
+            this.binder = binder;
+        }
+    }
+
+    private SqlPlan(String sql, String[] names, int[] slots, int[] positions) {
+        this.sql = sql;
+        this.names = names;
+        this.slots = slots;
+        this.positions = positions;
+        this.binders = new SlotBinder[slots.length];
+    }
+
+    /**
+     * 获取sql的编译结果，已编译的sql直接从缓存返回。
+     * @param sql 包含?参数名的sql
+     * @param mysql 是否按MySQL语法识别字符串和注释
+     * @return
+     */
+    static SqlPlan compile(String sql, boolean mysql) {
+        var plans = mysql ? mysqlPlans : SqlPlan.plans;
+        var result = plans.get(sql);
+        if (result != null) {
+            return result;
+        }
+
+        result = parse(sql, mysql);
+        if (plans.size() >= MAX_CACHED_PLANS) {
+            plans.clear();
+        }
+        plans.put(sql, result);
+        return result;
+    }
+
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    /**
+     * 第j个占位符是否紧跟在in (之后
+     * @param j 占位符序号
+     * @return 1表示in (?，-1表示not in (?，0表示其他位置
+     */
+    int inListContext(int j) {
+        var i = skipSpaceBack(positions[j] - 1);
+        if (i < 0 || sql.charAt(i) != '(') {
+            return 0;
+        }
+        i = skipSpaceBack(i - 1);
+        if (i < 1 || !sql.regionMatches(true, i - 1, "in", 0, 2) || (i >= 2 && isNameChar(sql.charAt(i - 2)))) {
+            return 0;
+        }
+        i = skipSpaceBack(i - 2);
+        if (i >= 2 && sql.regionMatches(true, i - 2, "not", 0, 3) && (i < 3 || !isNameChar(sql.charAt(i - 3)))) {
+            return -1;
+        }
+        return 1;
+    }
+
+    private int skipSpaceBack(int i) {
+        while (i >= 0 && Character.isWhitespace(sql.charAt(i))) {
+            i--;
+        }
+        return i;
+    }
+
+    /**
+     * 单次扫描翻译sql，字符串、引号标识符和注释中的?不是参数。
+     * 没有参数的sql直接使用原字符串。
+     */
+    static SqlPlan parse(String source, boolean mysql) {
+        StringBuilder sql = null;
+        var names = new ArrayList<String>();
+        var slots = new int[8];
+        var positions = new int[8];
+        var count = 0;
+        var copied = 0;
+
+        var length = source.length();
+        var i = 0;
+        while (i < length) {
+            var next = SqlLexer.skip(source, i, mysql);
+            if (next != i) {
+                i = next;
+                continue;
+            }
+
+            if (source.charAt(i) != '?' || i + 1 >= length || !isNameChar(source.charAt(i + 1))) {
+                i++;
+                continue;
+            }
+
+            var end = i + 2;
+            while (end < length && isNameChar(source.charAt(end))) {
+                end++;
+            }
+            var name = source.substring(i + 1, end);
+            var index = names.indexOf(name);
+            if (index == -1) {
+                index = names.size();
+                names.add(name);
+            }
+            if (sql == null) {
+                sql = new StringBuilder(length);
+            }
+            sql.append(source, copied, i + 1);
+
+            if (count == slots.length) {
+                slots = Arrays.copyOf(slots, count * 2);
+                positions = Arrays.copyOf(positions, count * 2);
+            }
+            slots[count] = index;
+            positions[count++] = sql.length() - 1;
+            copied = end;
+            i = end;
+        }
+
+        if (sql == null) {
+            return new SqlPlan(source, new String[0], new int[0], new int[0]);
+        }
+        sql.append(source, copied, length);
+        return new SqlPlan(sql.toString(), names.toArray(new String[0]), Arrays.copyOf(slots, count), Arrays.copyOf(positions, count));
+    }
+
+    /**
+     * 把集合参数的占位符展开成多个占位符，同样的展开方式只生成一次。
+     * 展开后参数names[i]变为names[i][0]、names[i][1]...，按原顺序排列。
+     * @param sizes 每个参数展开的元素数，0表示不展开
+     * @return
+     */
+    SqlPlan expand(int[] sizes) {
+        var key = Arrays.toString(sizes);
+        var result = expanded.get(key);
+        if (result != null) {
+            return result;
+        }
+
+        var base = new int[names.length];
+        var newNames = new ArrayList<String>();
+        for (var i = 0; i < names.length; i++) {
+            base[i] = newNames.size();
+            if (sizes[i] == 0) {
+                newNames.add(names[i]);
+            } else {
+                for (var k = 0; k < sizes[i]; k++) {
+                    newNames.add(names[i] + "[" + k + "]");
+                }
+            }
+        }
+
+        var count = 0;
+        for (var slot : slots) {
+            count += Math.max(sizes[slot], 1);
+        }
+        var newSlots = new int[count];
+        var newPositions = new int[count];
+        var sql = new StringBuilder(this.sql.length() + count * 2);
+        var copied = 0;
+        count = 0;
+        for (var j = 0; j < slots.length; j++) {
+            sql.append(this.sql, copied, positions[j]);
+            copied = positions[j] + 1;
+            var slot = slots[j];
+            for (var k = 0; k < Math.max(sizes[slot], 1); k++) {
+                if (k > 0) {
+                    sql.append(',');
+                }
+                newSlots[count] = base[slot] + k;
+                newPositions[count++] = sql.length();
+                sql.append('?');
+            }
+        }
+        sql.append(this.sql, copied, this.sql.length());
+
+        result = new SqlPlan(sql.toString(), newNames.toArray(new String[0]), newSlots, newPositions);
+        if (expanded.size() >= MAX_CACHED_PLANS) {
+            expanded.clear();
+        }
+        expanded.put(key, result);
+        return result;
+    }
+
+    /**
+     * 绑定参数
+     * 每个占位符按值的类型使用{@link DBParamBinder}，选择的绑定器缓存在计划中，值的类型不变时直接复用。
+     * @param statement
+     * @param values 参数值，与names一一对应
+     * @throws SQLException
+     */
+    void bind(PreparedStatement statement, Object[] values) throws SQLException {
+        var version = ParamBinderRegistry.version;
+        for (var i = 0; i < slots.length; i++) {
+            var value = values[slots[i]];
+            if (value == null) {
+                statement.setObject(i + 1, null);
+                continue;
+            }
+            var type = value.getClass();
+            var binder = binders[i];
+            if (binder == null || binder.type != type || binder.version != version) {
+                binder = new SlotBinder(type, version, DBParamBinder.get(type));
+                binders[i] = binder;
+            }
+            binder.binder.bind(statement, i + 1, value);
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package easydao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * sql读写的表
+ * 从from、join之后取得读取的表，从insert、update、delete、replace、merge、truncate之后取得写入的表。
+ * 表名去掉引号和架构前缀后转成小写，同一sql只解析一次。
+ * 只用于缓存失效，无法确定的位置多取一些表名只会多失效一些缓存。
+ *
+ * @author ryu
+ */
+class SqlTables {
+
+    /**
+     * 缓存的最大数量，超过后清空缓存
+     */
+    static final int MAX_CACHED_TABLES = 10000;
+
+    private static final ConcurrentHashMap<String, SqlTables> cache = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, SqlTables> mysqlCache = new ConcurrentHashMap<>();
+
+    /**
+     * 不是别名的关键字
+     */
+    private static final HashSet<String> keywords = new HashSet<>(Arrays.asList(
+            "where", "join", "inner", "left", "right", "full", "outer", "cross", "natural", "straight_join",
+            "on", "using", "group", "order", "having", "limit", "offset", "union", "except", "intersect",
+            "for", "with", "set", "values", "select", "window", "lock", "procedure", "into", "fetch"
+    ));
+
+    /**
+     * 括号中的from不是表来源的函数，比如extract(year from col)
+     */
+    private static final HashSet<String> fromFunctions = new HashSet<>(Arrays.asList(
+            "extract", "trim", "substring", "substr", "overlay"
+    ));
+
+    /**
+     * 写入语句中表名前可以出现的修饰词
+     */
+    private static final HashSet<String> modifiers = new HashSet<>(Arrays.asList(
+            "into", "from", "table", "if", "exists", "ignore", "low_priority", "high_priority", "delayed", "quick", "only"
+    ));
+
+    /**
+     * 读取的表
+     */
+    final String[] reads;
+
+    /**
+     * 写入的表
+     */
+    final String[] writes;
+
+    private SqlTables(String[] reads, String[] writes) {
+        this.reads = reads;
+        this.writes = writes;
+    }
+
+    /**
+     * 获取sql读写的表
+     * @param sql
+     * @param mysql 是否按MySQL语法识别字符串和注释
+     * @return
+     */
+    static SqlTables of(String sql, boolean mysql) {
+        var cache = mysql ? mysqlCache : SqlTables.cache;
+        var result = cache.get(sql);
+        if (result != null) {
+            return result;
+        }
+
+        result = parse(sql, mysql);
+        if (cache.size() >= MAX_CACHED_TABLES) {
+            cache.clear();
+        }
+        cache.put(sql, result);
+        return result;
+    }
+
+    /**
+     * 规范化表名：去掉引号和架构前缀，转成小写
+     * @param table
+     * @param mysql
+     * @return
+     */
+    static String normalize(String table, boolean mysql) {
+        var tokens = tokenize(table.trim(), mysql);
+        return tokens.isEmpty() ? "" : tokens.get(tokens.size() - 1);
+    }
+
+    static SqlTables parse(String sql, boolean mysql) {
+        var tokens = tokenize(sql, mysql);
+        var reads = new LinkedHashSet<String>();
+        var writes = new LinkedHashSet<String>();
+
+        //每层括号是否是extract、trim等函数的参数
+        var functions = new ArrayList<Boolean>();
+        for (var i = 0; i < tokens.size(); i++) {
+            switch (tokens.get(i)) {
+                case "(":
+                    functions.add(i > 0 && fromFunctions.contains(tokens.get(i - 1)));
+                    break;
+                case ")":
+                    if (!functions.isEmpty()) {
+                        functions.remove(functions.size() - 1);
+                    }
+                    break;
+                case "from":
+                    if (!functions.isEmpty() && functions.get(functions.size() - 1)) {
+                        break;
+                    }
+                    readTables(tokens, i + 1, reads);
+                    break;
+                case "join":
+                    readTables(tokens, i + 1, reads);
+                    break;
+                case "update":
+                    //select ... for update、on duplicate key update不是写入语句
+                    if (i > 0 && (tokens.get(i - 1).equals("for") || tokens.get(i - 1).equals("key"))) {
+                        break;
+                    }
+                    addTable(tokens, i + 1, writes);
+                    break;
+                case "insert":
+                case "replace":
+                case "merge":
+                case "delete":
+                case "truncate":
+                    addTable(tokens, i + 1, writes);
+                    break;
+                case "drop":
+                case "alter":
+                    if (i + 1 < tokens.size() && tokens.get(i + 1).equals("table")) {
+                        addTable(tokens, i + 1, writes);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return new SqlTables(reads.toArray(new String[0]), writes.toArray(new String[0]));
+    }
+
+    /**
+     * from、join之后以逗号分隔的表，表名后可以有别名。
+     * join的on、using条件之后还可以有逗号分隔的表，比如from a join b on a.id = b.id, c
+     */
+    private static void readTables(ArrayList<String> tokens, int i, LinkedHashSet<String> result) {
+        while (i < tokens.size() && (isName(tokens.get(i)) || tokens.get(i).equals("("))) {
+            if (tokens.get(i).equals("(")) {
+                //子查询中的表由parse处理，括号中的join从第一个表开始读取
+                if (i + 1 < tokens.size() && !tokens.get(i + 1).equals("select") && !tokens.get(i + 1).equals("with")) {
+                    readTables(tokens, i + 1, result);
+                }
+                i = skipParentheses(tokens, i);
+            } else {
+                result.add(tokens.get(i++));
+            }
+            if (i < tokens.size() && tokens.get(i).equals("as")) {
+                i++;
+            }
+            if (i < tokens.size() && isName(tokens.get(i)) && !keywords.contains(tokens.get(i))) {
+                i++;
+            }
+            if (i < tokens.size() && (tokens.get(i).equals("on") || tokens.get(i).equals("using"))) {
+                i = skipCondition(tokens, i + 1);
+            }
+            if (i >= tokens.size() || !tokens.get(i).equals(",")) {
+                return;
+            }
+            i++;
+        }
+    }
+
+    /**
+     * 跳过从i开始的括号，返回右括号之后的位置
+     */
+    private static int skipParentheses(ArrayList<String> tokens, int i) {
+        var depth = 0;
+        for (; i < tokens.size(); i++) {
+            if (tokens.get(i).equals("(")) {
+                depth++;
+            } else if (tokens.get(i).equals(")") && --depth == 0) {
+                return i + 1;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * 跳过join条件，返回条件之后的位置：同层的逗号、关键字、右括号或sql结尾
+     */
+    private static int skipCondition(ArrayList<String> tokens, int i) {
+        var depth = 0;
+        for (; i < tokens.size(); i++) {
+            var token = tokens.get(i);
+            if (token.equals("(")) {
+                depth++;
+            } else if (token.equals(")")) {
+                if (depth == 0) {
+                    return i;
+                }
+                depth--;
+            } else if (depth == 0 && (token.equals(",") || token.equals(";") || (keywords.contains(token) && !token.equals("on") && !token.equals("using")))) {
+                return i;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * 跳过修饰词后的表名
+     */
+    private static void addTable(ArrayList<String> tokens, int i, LinkedHashSet<String> result) {
+        while (i < tokens.size() && modifiers.contains(tokens.get(i))) {
+            i++;
+        }
+        if (i < tokens.size() && isName(tokens.get(i))) {
+            result.add(tokens.get(i));
+        }
+    }
+
+    private static boolean isName(String token) {
+        return !token.isEmpty() && isNameChar(token.charAt(0));
+    }
+
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+    /**
+     * 把sql拆成名称和符号，跳过字符串和注释。
+     * 带架构前缀的名称只保留最后一段，引号标识符去掉引号，名称转成小写。
+     */
+    private static ArrayList<String> tokenize(String sql, boolean mysql) {
+        var result = new ArrayList<String>();
+        var length = sql.length();
+        var i = 0;
+        while (i < length) {
+            var c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+
+            var quoted = c == '`' || c == '"' || (c == '[' && !mysql);
+            if (!quoted && !isNameChar(c)) {
+                var next = SqlLexer.skip(sql, i, mysql);
+                if (next == i) {
+                    result.add(String.valueOf(c));
+                    next++;
+                }
+                i = next;
+                continue;
+            }
+
+            //名称：多段用点连接，每段可以是引号标识符
+            String segment = null;
+            while (i < length) {
+                c = sql.charAt(i);
+                if (c == '`' || c == '"' || (c == '[' && !mysql)) {
+                    var end = SqlLexer.skip(sql, i, mysql);
+                    segment = sql.substring(i + 1, Math.max(end - 1, i + 1));
+                    i = end;
+                } else if (isNameChar(c)) {
+                    var end = i + 1;
+                    while (end < length && isNameChar(sql.charAt(end))) {
+                        end++;
+                    }
+                    segment = sql.substring(i, end);
+                    i = end;
+                } else {
+                    break;
+                }
+                if (i >= length || sql.charAt(i) != '.') {
+                    break;
+                }
+                i++;
+            }
+            if (segment != null && !segment.isEmpty()) {
+                result.add(segment.toLowerCase());
+            }
+        }
+        return result;
+    }
+}
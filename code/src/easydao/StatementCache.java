@@ -0,0 +1,209 @@
+package easydao;
+
+import easydao.utils.FXUtils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 连接的PreparedStatement缓存
+ * 按jdbc sql缓存最近使用的PreparedStatement，超出容量时关闭最久未使用的Statement。
+ * 缓存属于池中的一个物理连接，同一时间只有借出该连接的线程访问，不需要同步。
+ *
+ * @author ryu
+ */
+class StatementCache {
+
+    /**
+     * 缓存的Statement。
+     * 借出的是代理对象，调用close()时清空参数并放回缓存，不关闭jdbc对象。
+     */
+    private class CachedStatement implements InvocationHandler {
+
+        final String key;
+        final PreparedStatement statement;
+        final PreparedStatement proxy;
+        final int maxRows;
+        final int fetchSize;
+        final int queryTimeout;
+        final ArrayList<ResultSet> resultSets = new ArrayList<>();
+        boolean inUse = false;
+        boolean dirty = false;
+        /**
+         * 修改了无法恢复的属性，归还时关闭
+         */
+        boolean tainted = false;
+        boolean evicted = false;
+
+        CachedStatement(String key, PreparedStatement statement) throws SQLException {
+            this.key = key;
+            this.statement = statement;
+            this.maxRows = statement.getMaxRows();
+            this.fetchSize = statement.getFetchSize();
+            this.queryTimeout = statement.getQueryTimeout();
+            this.proxy = (PreparedStatement) Proxy.newProxyInstance(
+                    StatementCache.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class},
+                    this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (inUse) {
+                        inUse = false;
+                        recycle();
+                    }
+                    return null;
+                case "isClosed":
+                    return !inUse || statement.isClosed();
+                case "getConnection":
+                    return owner;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "CachedStatement@" + statement;
+                case "setMaxRows":
+                case "setFetchSize":
+                case "setQueryTimeout":
+                    dirty = true;
+                    break;
+                case "setFetchDirection":
+                case "setEscapeProcessing":
+                case "setPoolable":
+                case "closeOnCompletion":
+                    tainted = true;
+                    break;
+            }
+
+            if (!inUse) {
+                throw new SQLException("Statement已关闭");
+            }
+
+            Object result;
+            try {
+                result = method.invoke(statement, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            }
+
+            if (result instanceof ResultSet) {
+                resultSets.add((ResultSet) result);
+            }
+            return result;
+        }
+
+        /**
+         * 关闭结果集，清空参数，恢复被修改的属性后放回缓存。
+         * 已经被移出缓存、修改了其他属性或无法恢复的Statement移出缓存并关闭。
+         */
+        private void recycle() {
+            for (var rs : resultSets) {
+                FXUtils.tryInvoke(() -> rs.close());
+            }
+            resultSets.clear();
+
+            if (!evicted && tainted) {
+                statements.remove(key);
+            } else if (!evicted) {
+                try {
+                    statement.clearParameters();
+                    statement.clearWarnings();
+                    if (dirty) {
+                        statement.setMaxRows(maxRows);
+                        statement.setFetchSize(fetchSize);
+                        statement.setQueryTimeout(queryTimeout);
+                        dirty = false;
+                    }
+                    return;
+                } catch (SQLException ex) {
+                    statements.remove(key);
+                }
+            }
+            FXUtils.tryInvoke(() -> statement.close());
+        }
+    }
+
+    private final Connection connection;
+    private final int capacity;
+    private Connection owner = null;
+    private final LinkedHashMap<String, CachedStatement> statements;
+
+    /**
+     * @param connection 物理连接
+     * @param capacity 缓存的Statement数量，0表示不缓存
+     */
+    StatementCache(Connection connection, int capacity) {
+        this.connection = connection;
+        this.capacity = capacity;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if (size() <= StatementCache.this.capacity) {
+                    return false;
+                }
+                var cached = eldest.getValue();
+                cached.evicted = true;
+                if (!cached.inUse) {
+                    FXUtils.tryInvoke(() -> cached.statement.close());
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * 设置借出连接的代理对象，Statement.getConnection()返回该对象
+     * @param owner
+     */
+    void setOwner(Connection owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * 从缓存中获取PreparedStatement，缓存中没有则创建并放入缓存。
+     * 缓存中的Statement正在使用或不使用缓存时，创建不缓存的Statement。
+     * @param sql jdbc sql
+     * @param resultSetType
+     * @param resultSetConcurrency
+     * @return
+     * @throws SQLException
+     */
+    PreparedStatement prepare(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+        if (capacity <= 0) {
+            return connection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+        }
+
+        var key = resultSetType + "," + resultSetConcurrency + ":" + sql;
+        var cached = statements.get(key);
+        if (cached == null) {
+            cached = new CachedStatement(key, connection.prepareStatement(sql, resultSetType, resultSetConcurrency));
+            statements.put(key, cached);
+        } else if (cached.inUse) {
+            return connection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+        }
+
+        cached.inUse = true;
+        return cached.proxy;
+    }
+
+    /**
+     * 缓存的Statement数量
+     * @return
+     */
+    int size() {
+        return statements.size();
+    }
+}
@@ -17,4 +17,30 @@ public interface IDBInfo {
     String wrapCount(String sql);
     String getLastId();
     String appendSql(String sql, String sql2);
+
+    /**
+     * 是否使用MySQL语法：字符串中的反斜杠转义下一个字符，#开始行注释。
+     * 翻译sql参数时据此跳过字符串和注释。
+     * @return
+     */
+    default boolean isMySQLSyntax() {
+        return false;
+    }
+
+    /**
+     * 一个IN列表参数最多展开的元素数，超过时分批执行。
+     * @return
+     */
+    default int getMaxInListSize() {
+        return 1000;
+    }
+
+    /**
+     * 逐行读取结果时使用的fetch size，驱动需要特殊值才能流式读取时在这里转换。
+     * @param fetchSize 配置的fetch size
+     * @return
+     */
+    default int getStreamFetchSize(int fetchSize) {
+        return fetchSize;
+    }
 }
\ No newline at end of file
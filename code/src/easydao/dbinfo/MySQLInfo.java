@@ -116,4 +116,20 @@ public class MySQLInfo implements IDBInfo {
     public String appendSql(String sql, String sql2) {
         return sql + ";" + sql2;
     }
+
+    @Override
+    public boolean isMySQLSyntax() {
+        return true;
+    }
+
+    @Override
+    public int getMaxInListSize() {
+        return 8192; //MySQL没有参数数量限制，受max_allowed_packet限制
+    }
+
+    @Override
+    public int getStreamFetchSize(int fetchSize) {
+        //没有开启useCursorFetch时，MySQL驱动只在fetch size为Integer.MIN_VALUE时逐行读取
+        return db.connStr.toLowerCase().contains("usecursorfetch=true") ? fetchSize : Integer.MIN_VALUE;
+    }
 }
@@ -126,4 +126,9 @@ public class SQLServerInfo implements IDBInfo {
     public String appendSql(String sql, String sql2) {
         return sql + ";" + sql2;
     }
+
+    @Override
+    public int getMaxInListSize() {
+        return 2048; //SQL Server一条语句最多2100个参数
+    }
 }
@@ -5,10 +5,25 @@
  */
 package easydao.utils;
 
-import java.util.Date;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
+ * 数据缓存
+ * 读取不加锁，超出配额时按最近访问时间成批淘汰最久未使用的项目，不影响其他项目。
+ * 项目可以带标签，按标签使项目失效。
+ * 通过{@link #getOrLoad}加载时，同一key的并发加载合并为一次；允许过期数据时，快过期的项目在后台刷新，刷新完成前返回旧数据。
  *
  * @author ryu
  */
@@ -20,10 +35,22 @@ public class Cache {
         this.name = name;
     }
 
-    private class CacheItem {
-        public Object data;
-        public Date Time;
-        public Object Key;
+    private static final String[] NO_TAGS = new String[0];
+
+    private static class CacheItem {
+        final Object data;
+        final long time;
+        final long weight;
+        final String[] tags;
+        volatile long lastAccess;
+
+        CacheItem(Object data, long time, long weight, String[] tags) {
+            this.data = data;
+            this.time = time;
+            this.weight = weight;
+            this.tags = tags;
+            this.lastAccess = time;
+        }
     }
 
 
@@ -35,12 +62,51 @@ public class Cache {
      * 缓存配额模式
      */
     public CacheQuotaMode quotaMode = CacheQuotaMode.FreeMemoryBytes;
-//    public long totalMemoryBytes = 1024 * 1024 * 100;
-    private final HashMap<Object, CacheItem> cache = new HashMap<Object, CacheItem>();
+
+    /**
+     * 估算缓存项目的字节数，配额模式为{@link CacheQuotaMode#MaxBytes}时使用
+     */
+    public Func1<Object, Long> weigher = SizeEstimator::estimate;
+
+    /**
+     * 超出配额时一次淘汰的比例，成批淘汰避免每次放入都排序
+     */
+    public double evictRatio = 0.25;
+
+    /**
+     * 允许过期数据时，项目存在时间超过缓存超时的这个比例就开始在后台刷新
+     */
+    public double refreshAheadRatio = 0.8;
+
+    private final ConcurrentHashMap<Object, CacheItem> cache = new ConcurrentHashMap<>();
+    private final ReentrantLock evictLock = new ReentrantLock();
+    private final AtomicLong weight = new AtomicLong();
+    private volatile long lastEvict = 0;
+
+    /**
+     * 每个标签下的项目
+     */
+    private final ConcurrentHashMap<String, Set<Object>> tagged = new ConcurrentHashMap<>();
+
+    /**
+     * 每个标签最后一次失效的序号
+     */
+    private final ConcurrentHashMap<String, Long> invalidated = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * 正在加载的项目
+     */
+    private final ConcurrentHashMap<Object, CompletableFuture<Object>> loading = new ConcurrentHashMap<>();
+
+    /**
+     * 按剩余内存淘汰时两次淘汰的最小间隔，释放的内存要等垃圾回收后才能体现在剩余内存中
+     */
+    static final long FREE_MEMORY_EVICT_INTERVAL_MS = 1000;
     Runtime runtime = Runtime.getRuntime();
 
     public <T> boolean tryGet(Object key, long timeLimit, Ref<T> cache) {
-        CacheItem info = this.cache.getOrDefault(key, null);
+        CacheItem info = this.cache.get(key);
 
         //no cache
         if (info == null) {
@@ -48,58 +114,330 @@ public class Cache {
         }
 
         //cache timeout
-        if (new Date().getTime() - info.Time.getTime() > timeLimit) {
+        var now = System.currentTimeMillis();
+        if (now - info.time > timeLimit) {
             return false;
         }
 
+        info.lastAccess = now;
         cache.set((T)info.data);
-        return true;//!cache.isEmpty();
+        return true;
     }
- 
+
     public <T> void put(Object key, T value) {
-        //检查配额
-        var exceeded = false;
-        switch(quotaMode)
-        {
-            case MaxItems:
-                exceeded = cache.size() > quota;
-                break;
-            case FreeMemoryBytes:
-                exceeded = runtime.freeMemory() < quota;
-                break;
-        }
-        if (exceeded) {
-            synchronized (cache) {
-                FXUtils.debug(Cache.class, "Cache[%s]由于缓存配额不足，释放缓存。", name);
-                cache.clear();
-                //todo:
-                //ArrayList<DBCacheInfo> items = new ArrayList<>(cache.values());
-                //items.sort((a,b)->-a.Time.compareTo(b.Time)); 
+        put(key, value, Long.MAX_VALUE, NO_TAGS);
+    }
+
+    /**
+     * 获取项目，没有或超时时调用加载函数。
+     * 同一key同时只有一个线程加载，其他线程等待并共享结果；加载失败时所有等待的线程抛出同一个异常。
+     * 加载函数负责把结果放入缓存。
+     * @param key
+     * @param timeLimit 允许缓存超时毫秒数
+     * @param loader 加载函数
+     * @return
+     * @throws Exception 加载函数的异常
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getOrLoad(Object key, long timeLimit, Func<T> loader) throws Exception {
+        var data = new Ref<T>();
+        if (tryGet(key, timeLimit, data)) {
+            return data.get();
+        }
+
+        var future = new CompletableFuture<Object>();
+        var running = loading.putIfAbsent(key, future);
+        if (running != null) {
+            return (T) await(running);
+        }
+        try {
+            //等待加载权期间其他线程可能已经放入
+            if (tryGet(key, timeLimit, data)) {
+                future.complete(data.get());
+                return data.get();
             }
+            var result = loader.invoke();
+            future.complete(result);
+            return result;
+        } catch (Exception | Error ex) {
+            future.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            loading.remove(key, future);
         }
-        CacheItem info = new CacheItem();
-        info.data = value;
-        info.Time = new Date();
-        //info.Key = key;
-        synchronized (cache) {
-            cache.put(key, info);
-            FXUtils.debug(Cache.class, "Cache[%s]的项目数：%d", name, cache.size());
+    }
+
+    /**
+     * 获取项目，允许返回过期不超过maxStaleMs的数据。
+     * 项目存在时间超过timeLimit * {@link #refreshAheadRatio}时在executor中刷新，刷新完成前返回旧数据；
+     * 没有项目或过期超过maxStaleMs时与{@link #getOrLoad(Object, long, Func)}相同。
+     * @param key
+     * @param timeLimit 允许缓存超时毫秒数
+     * @param maxStaleMs 超时后仍然可以返回的毫秒数
+     * @param executor 执行后台刷新
+     * @param loader 加载函数，负责把结果放入缓存
+     * @return
+     * @throws Exception 同步加载时加载函数的异常
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getOrLoad(Object key, long timeLimit, long maxStaleMs, Executor executor, Func<T> loader) throws Exception {
+        var item = cache.get(key);
+        if (item != null) {
+            var now = System.currentTimeMillis();
+            var age = now - item.time;
+            if (age <= timeLimit + maxStaleMs) {
+                item.lastAccess = now;
+                if (age > timeLimit * refreshAheadRatio) {
+                    refresh(key, executor, loader);
+                }
+                return (T) item.data;
+            }
         }
+        return getOrLoad(key, timeLimit, loader);
+    }
 
+    /**
+     * 在后台加载项目，同一key已经在加载时不重复加载。
+     * executor关闭时未执行的刷新任务可以通过Future.cancel取消，等待的线程收到CancellationException。
+     */
+    private <T> void refresh(Object key, Executor executor, Func<T> loader) {
+        var future = new CompletableFuture<Object>();
+        if (loading.putIfAbsent(key, future) != null) {
+            return;
+        }
+        var task = new FutureTask<Object>(loader::invoke) {
+            @Override
+            protected void done() {
+                try {
+                    future.complete(get());
+                } catch (ExecutionException ex) {
+                    FXUtils.debug(Cache.class, "Cache[%s]后台刷新出错：%s", name, ex.getCause());
+                    future.completeExceptionally(ex.getCause());
+                } catch (Exception ex) {
+                    future.completeExceptionally(ex);
+                } finally {
+                    loading.remove(key, future);
+                }
+            }
+        };
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException ex) {
+            task.cancel(false);
+        }
+    }
+
+    private static Object await(CompletableFuture<Object> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            var cause = ex.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw cause instanceof Exception ? (Exception) cause : ex;
+        }
     }
-}
 
-/**
- * 缓存配额模式
- */
-enum CacheQuotaMode
-{
     /**
-     * 限制项目数
+     * 当前的失效序号
+     * 读取数据前获取，放入时传给{@link #put(Object, Object, long, String...)}，读取期间标签已经失效的数据不放入缓存。
+     * @return
      */
-    MaxItems,
+    public long getVersion() {
+        return version.get();
+    }
+
     /**
-     * 限制系统剩余内存
+     * 放入带标签的项目
+     * @param key
+     * @param value
+     * @param version 读取数据前的{@link #getVersion()}，任一标签在此之后失效时不放入
+     * @param tags 标签
      */
-    FreeMemoryBytes
-}
\ No newline at end of file
+    public <T> void put(Object key, T value, long version, String... tags) {
+        for (var tag : tags) {
+            var time = invalidated.get(tag);
+            if (time != null && time > version) {
+                FXUtils.debug(Cache.class, "Cache[%s]的项目在读取期间已失效，不缓存：%s", name, tag);
+                return;
+            }
+        }
+
+        long size = 0;
+        if (quotaMode == CacheQuotaMode.MaxBytes) {
+            try {
+                size = weigher.invoke(value);
+            } catch (Exception ex) {
+                FXUtils.debug(Cache.class, "Cache[%s]估算项目大小出错：%s", name, ex);
+                return;
+            }
+            if (size > quota) {
+                //超过全部配额的项目不缓存
+                FXUtils.debug(Cache.class, "Cache[%s]的项目超过缓存配额，不缓存：%d字节", name, size);
+                remove(key);
+                return;
+            }
+        }
+
+        var old = cache.put(key, new CacheItem(value, System.currentTimeMillis(), size, tags));
+        if (old != null) {
+            removed(key, old);
+        }
+        weight.addAndGet(size);
+        for (var tag : tags) {
+            tagged.compute(tag, (k, keys) -> {
+                if (keys == null) {
+                    keys = ConcurrentHashMap.newKeySet();
+                }
+                keys.add(key);
+                return keys;
+            });
+        }
+        //放入期间标签失效
+        for (var tag : tags) {
+            var time = invalidated.get(tag);
+            if (time != null && time > version) {
+                remove(key);
+                return;
+            }
+        }
+        if (isExceeded()) {
+            evict();
+        }
+        FXUtils.debug(Cache.class, "Cache[%s]的项目数：%d", name, cache.size());
+    }
+
+    /**
+     * 移除项目
+     * @param key
+     */
+    public void remove(Object key) {
+        var old = cache.remove(key);
+        if (old != null) {
+            removed(key, old);
+        }
+    }
+
+    /**
+     * 使带有任一标签的项目失效
+     * 正在读取、稍后才放入的带这些标签的数据也不会放入缓存。
+     * @param tags 标签
+     */
+    public void invalidate(String... tags) {
+        var time = version.incrementAndGet();
+        for (var tag : tags) {
+            invalidated.put(tag, time);
+            var keys = tagged.remove(tag);
+            if (keys == null) {
+                continue;
+            }
+            for (var key : keys) {
+                remove(key);
+            }
+            FXUtils.debug(Cache.class, "Cache[%s]的标签失效：%s，移除%d个项目", name, tag, keys.size());
+        }
+    }
+
+    /**
+     * 项目移除后更新重量和标签索引。
+     * 标签索引按key记录，同一key可能已经放入了带相同标签的新项目，这时保留索引，否则新项目不会随标签失效。
+     * 检查和移除在标签的compute中进行，与放入新项目时加入索引互斥。
+     */
+    private void removed(Object key, CacheItem item) {
+        weight.addAndGet(-item.weight);
+        for (var tag : item.tags) {
+            tagged.computeIfPresent(tag, (k, keys) -> {
+                var current = cache.get(key);
+                if (current == null || !Arrays.asList(current.tags).contains(tag)) {
+                    keys.remove(key);
+                }
+                return keys.isEmpty() ? null : keys;
+            });
+        }
+    }
+
+    /**
+     * 移除所有项目
+     */
+    public void clear() {
+        for (var key : cache.keySet()) {
+            remove(key);
+        }
+    }
+
+    /**
+     * 缓存项目估算的总字节数，只在配额模式为{@link CacheQuotaMode#MaxBytes}时统计
+     * @return
+     */
+    public long getWeight() {
+        return weight.get();
+    }
+
+    /**
+     * 项目数
+     * @return
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    private boolean isExceeded() {
+        switch (quotaMode) {
+            case MaxItems:
+                return cache.size() > quota;
+            case FreeMemoryBytes:
+                return runtime.freeMemory() < quota;
+            case MaxBytes:
+                return weight.get() > quota;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 淘汰最久未使用的项目。
+     * 已经有线程在淘汰时直接返回，不阻塞放入。
+     */
+    private void evict() {
+        if (!evictLock.tryLock()) {
+            return;
+        }
+        try {
+            var now = System.currentTimeMillis();
+            if (!isExceeded() || (quotaMode == CacheQuotaMode.FreeMemoryBytes && now - lastEvict < FREE_MEMORY_EVICT_INTERVAL_MS)) {
+                return;
+            }
+            lastEvict = now;
+            var items = new ArrayList<Map.Entry<Object, CacheItem>>(cache.entrySet());
+            var lastAccess = new long[items.size()];
+            var order = new Integer[items.size()];
+            for (var i = 0; i < items.size(); i++) {
+                lastAccess[i] = items.get(i).getValue().lastAccess;
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparingLong(i -> lastAccess[i]));
+
+            var count = Math.max((int) (items.size() * evictRatio), 1);
+            if (quotaMode == CacheQuotaMode.MaxItems) {
+                count = Math.max(count, items.size() - (int) quota);
+            }
+            //按字节限制时释放到配额的(1 - evictRatio)以下
+            var target = (long) (quota * (1 - evictRatio));
+            var removed = 0;
+            for (var i = 0; i < order.length; i++) {
+                if (quotaMode == CacheQuotaMode.MaxBytes ? weight.get() <= target : i >= count) {
+                    break;
+                }
+                var item = items.get(order[i]);
+                if (cache.remove(item.getKey(), item.getValue())) {
+                    removed(item.getKey(), item.getValue());
+                    removed++;
+                }
+            }
+            FXUtils.debug(Cache.class, "Cache[%s]由于缓存配额不足，释放%d个最久未使用的项目。", name, removed);
+        } finally {
+            evictLock.unlock();
+        }
+    }
+}
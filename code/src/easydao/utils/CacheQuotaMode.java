@@ -0,0 +1,20 @@
+package easydao.utils;
+
+/**
+ * 缓存配额模式
+ */
+public enum CacheQuotaMode
+{
+    /**
+     * 限制项目数
+     */
+    MaxItems,
+    /**
+     * 限制系统剩余内存
+     */
+    FreeMemoryBytes,
+    /**
+     * 限制缓存项目估算的总字节数，项目大小由{@link Cache#weigher}估算
+     */
+    MaxBytes
+}
@@ -10,7 +10,6 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Member;
 import java.lang.reflect.Method;
 import java.math.BigInteger;
-import java.sql.Timestamp;
 import java.text.SimpleDateFormat;
 import java.util.*;
 
@@ -22,31 +21,9 @@ public class FXUtils
 {
 
 
-    private static HashMap<Class, Class> boxedTypes = new HashMap<>(){
-        {put(Integer.class, int.class);}
-        {put(Byte.class, byte.class);}
-        {put(Short.class, short.class);}
-        {put(Long.class, long.class);}
-        {put(Float.class, float.class);}
-        {put(Double.class, double.class);}
-        {put(Character.class, char.class);}
-        {put(Boolean.class, boolean.class);}
-    };
-
-    private static HashMap<Class, Class> primitiveTypes = new HashMap<Class, Class>(){
-        {put(int.class, Integer.class);}
-        {put(byte.class,Byte.class  );}
-        {put(short.class, Short.class );}
-        {put(long.class, Long.class);}
-        {put(float.class, Float.class );}
-        {put(double.class, Double.class );}
-        {put(char.class, Character.class);}
-        {put( boolean.class, Boolean.class);}
-    };
-
     /**
      * 自动类型转换。
-     * 尝试各种方式，尽可能将对象转换为需要的类型。
+     * 尝试各种方式，尽可能将对象转换为需要的类型，转换方式由{@link TypeConverters}查找并缓存。
      * @param src
      * @param type
      * @param <T>
@@ -54,143 +31,7 @@ public class FXUtils
      * @throws Exception
      */
     public static <T> T changeType(Object src, Class<T> type) throws Exception {
-
-        if (src == null) {
-            return null;
-        }
-
-        if(type == Object.class)
-        {
-            return (T)src;
-        }
-
-        Class srcType = src.getClass();
-        if(srcType == type)
-        {
-            return (T)src;
-        }
-
-        Class srcPrimitiveType = null;
-
-        //自动拆箱
-        if(!srcType.isPrimitive())
-        {
-            srcPrimitiveType = boxedTypes.get(srcType);
-            if(srcPrimitiveType == type)
-            {
-                return (T)src;
-            }
-        }
-
-        //自动装箱
-        if(srcType.isPrimitive() && !type.isPrimitive())
-        {
-            if(primitiveTypes.get(srcType) == type)
-            {
-                return (T)src;
-            }
-        }
-
-        //子类可以强转
-        if (srcType.isAssignableFrom(type)) {
-            return (T) src;
-        }
-
-        //尝试将JSONArray等集合转换成需要的数组
-//        if (type.isArray()) {
-//            List list = null;
-//            if (srcType.isAssignableFrom(ArrayList.class)) {
-//                list = (List) src;
-//            } else if (src instanceof JSONArray) {
-//                list = ((JSONArray) src).toJavaList(Object.class);
-//            }
-//
-//            if (list != null) {
-//                Class<?> ctype = type.getComponentType();
-//                Object result = Array.newInstance(ctype, list.size());
-//                for (int i = 0; i < list.size(); i++) {
-//                    Array.set(result, i, changeType(list.get(i), ctype));
-//                }
-//                return (T) result;
-//            }
-//        }
-
-        //尝试util.Date、sql.Date、Timestamp之间的转换
-        if (type == Date.class) {
-            if (src instanceof Timestamp) {
-                return (T) new Date(((Timestamp) src).getTime());
-            }
-
-            if (src instanceof java.sql.Date) {
-                return (T) new Date(((java.sql.Date) src).getTime());
-            }
-        }
-
-        //尝试将JSONObject转换成java对象
-//        if (src instanceof JSONObject) {
-//            JSONObject jo = (JSONObject) src;
-//            Object result = type.getDeclaredConstructor().newInstance();
-//            for (String key : jo.keySet()) {
-//                try
-//                {
-//                    setMember(result, key, jo.get(key), true);
-//                }
-//                catch(Exception ex)
-//                {
-//                    System.out.println(String.format("由于Java对象缺少与JSON匹配的成员，数据发生丢失：%s.%s" , type.getSimpleName(), key));
-//                }
-//            }
-//            return (T) result;
-//        }
-
-        //尝试使用valueOf函数
-        try
-        {
-            var boxedType = type;
-            if(boxedType.isPrimitive()) {
-                boxedType = primitiveTypes.get(boxedType);
-            }
-            Method m = boxedType.getMethod("valueOf", srcPrimitiveType==null? srcType:srcPrimitiveType);
-            return (T)m.invoke(null, src);
-        }
-        catch(NoSuchMethodException ex)
-        {
-            //ignore
-        }
-
-        //使用toString转为String
-        if (type == String.class) {
-            return (T) src.toString();
-        }
-
-        //尝试构造函数
-        try {
-            return type.getConstructor(srcType).newInstance(src);
-        }
-        catch(Exception ex)
-        {
-            //ignore
-        }
-
-
-        //处理特定的数据类型
-        if(srcPrimitiveType == int.class && type == BigInteger.class)
-        {
-            return (T)BigInteger.valueOf((long)(int)src);
-        }
-
-        if(srcPrimitiveType == int.class && (type == byte.class || type == Byte.class))
-        {
-            return  (T)(Byte)(byte)(int)src;
-        }
-
-        if(srcPrimitiveType == long.class && (type == int.class || type == Integer.class))
-        {
-            return (T)(Integer)(int)(long)src;
-        }
-
-
-        throw new Exception("尚未支持的类型转换" + srcType.getSimpleName() + "到" + type.getSimpleName());
+        return TypeConverters.convert(src, type);
     }
 
 
@@ -13,33 +13,45 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  *
  * @author Administrator
  */
 public class SQLConfigReader implements AutoCloseable {
-    
-    private TreeMap<String, Node> items = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-    private TreeMap<String, String> texts = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    /**
+     * 加载后的配置，加载完成后不再修改，重新加载时整体替换。读取时不加锁，也不访问DOM。
+     */
+    private static class Snapshot {
+        final Map<String, String> texts;
+        final Map<String, Map<String, String>> attrs;
+
+        Snapshot(TreeMap<String, String> texts, TreeMap<String, Map<String, String>> attrs) {
+            this.texts = Collections.unmodifiableMap(texts);
+            this.attrs = Collections.unmodifiableMap(attrs);
+        }
+    }
+
+    private volatile Snapshot snapshot = new Snapshot(new TreeMap<>(), new TreeMap<>());
     private static String computer = System.getenv().get("COMPUTERNAME");
     private Query<File> files;
-    private HashMap<File, Long> lastModified = new HashMap<>();
+    private volatile Map<File, Long> lastModified = new HashMap<>();
 
-    private static ArrayList<SQLConfigReader> readers = new ArrayList<>();
+    private static CopyOnWriteArrayList<SQLConfigReader> readers = new CopyOnWriteArrayList<>();
     private static Thread autoReloadThread = new Thread(()->{
         while(true) {
             try {
-                synchronized (readers) {
-                    for (var i : readers) {
-                        for (var f : i.lastModified.keySet()) {
-                            if (f.lastModified() != i.lastModified.get(f)) {
-                                i.reload();
-                                break;
-                            }
+                for (var i : readers) {
+                    for (var entry : i.lastModified.entrySet()) {
+                        if (entry.getKey().lastModified() != entry.getValue()) {
+                            i.reload();
+                            break;
                         }
                     }
                 }
@@ -51,46 +63,55 @@ public class SQLConfigReader implements AutoCloseable {
     });
 
     static {
+        autoReloadThread.setDaemon(true);
         autoReloadThread.start();
     }
 
 
-    private void reload() throws Exception {
-        synchronized (this) {
-            items.clear();
-            texts.clear();
-
-            for (var file : files) {
-                FXUtils.debug(SQLConfigReader.class, "加载配置文件：" + file.getPath());
-                lastModified.put(file, file.lastModified());
-                DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-                DocumentBuilder db = dbf.newDocumentBuilder();
-                Document doc = db.parse(file);
-                NodeList nodes = doc.getElementsByTagName("item");
-                for (int i = 0; i < nodes.getLength(); i++) {
-                    Node node = nodes.item(i);
-                    var attrs = node.getAttributes();
-                    var forComputer = attrs.getNamedItem("forComputer");
-                    if (forComputer != null) {
-                        var value = forComputer.getNodeValue();
-                        if (!FXUtils.isNullOrWhiteSpace(value) && !value.equalsIgnoreCase(computer)) {
-                            continue;
-                        }
+    /**
+     * 重新加载配置文件，把sql和属性复制到新的快照后整体替换，加载失败时保留原来的配置。
+     */
+    private synchronized void reload() throws Exception {
+        var texts = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        var attrs = new TreeMap<String, Map<String, String>>(String.CASE_INSENSITIVE_ORDER);
+        var modified = new HashMap<File, Long>();
+
+        for (var file : files) {
+            FXUtils.debug(SQLConfigReader.class, "加载配置文件：" + file.getPath());
+            modified.put(file, file.lastModified());
+            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+            DocumentBuilder db = dbf.newDocumentBuilder();
+            Document doc = db.parse(file);
+            NodeList nodes = doc.getElementsByTagName("item");
+            for (int i = 0; i < nodes.getLength(); i++) {
+                Node node = nodes.item(i);
+                var nodeAttrs = node.getAttributes();
+                var forComputer = nodeAttrs.getNamedItem("forComputer");
+                if (forComputer != null) {
+                    var value = forComputer.getNodeValue();
+                    if (!FXUtils.isNullOrWhiteSpace(value) && !value.equalsIgnoreCase(computer)) {
+                        continue;
                     }
-                    String key = attrs.getNamedItem("key").getNodeValue();
-                    items.put(key, node);
-                    texts.put(key, node.getTextContent());
                 }
+                var itemAttrs = new HashMap<String, String>();
+                for (int j = 0; j < nodeAttrs.getLength(); j++) {
+                    var attr = nodeAttrs.item(j);
+                    itemAttrs.put(attr.getNodeName(), attr.getNodeValue());
+                }
+                String key = itemAttrs.get("key");
+                texts.put(key, node.getTextContent());
+                attrs.put(key, Collections.unmodifiableMap(itemAttrs));
             }
         }
+
+        snapshot = new Snapshot(texts, attrs);
+        lastModified = modified;
     }
 
     public SQLConfigReader(String... files) throws Exception {
         this.files = Query.from(files).select(i->new File(i));
         reload();
-        synchronized (readers) {
-            readers.add(this);
-        }
+        readers.add(this);
     }
 
     public <T> T getOrDefault(Class<T> type, String key, T defaultValue) {
@@ -108,9 +129,7 @@ public class SQLConfigReader implements AutoCloseable {
     
     public String get(String key)
     {
-        synchronized (this) {
-            return texts.get(key);
-        }
+        return snapshot.texts.get(key);
     }
 
     public <T> T get(Class<T> type, String key) throws Exception {
@@ -134,42 +153,30 @@ public class SQLConfigReader implements AutoCloseable {
     
     public String getAttr(String key, String attr)
     {
-        synchronized (this) {
-            Node item = items.get(key);
-            if (item == null) {
-                throw new IllegalArgumentException("没有找到配置：" + key);
-            }
-            Node node = item.getAttributes().getNamedItem(attr);
-            if (node == null) {
-                return null;
-            }
-            return node.getNodeValue();
+        var item = snapshot.attrs.get(key);
+        if (item == null) {
+            throw new IllegalArgumentException("没有找到配置：" + key);
         }
+        return item.get(attr);
     }
     
     public boolean tryGet(String key, Ref<String> value)
     {
-        synchronized (this) {
-            if (items.containsKey(key)) {
-                value.set(get(key));
-                return true;
-            }
-
+        var text = snapshot.texts.get(key);
+        if (text == null && !snapshot.texts.containsKey(key)) {
             return false;
         }
+        value.set(text);
+        return true;
     }
     
     public boolean contains(String key) {
-        synchronized (this) {
-            return items.containsKey(key);
-        }
+        return snapshot.texts.containsKey(key);
     }
 
     public String[] keys()
     {
-        synchronized (this) {
-            return items.keySet().toArray(new String[0]);
-        }
+        return snapshot.texts.keySet().toArray(new String[0]);
     }
 
     /**
@@ -187,8 +194,6 @@ public class SQLConfigReader implements AutoCloseable {
      */
     @Override
     public void close() throws IOException {
-        synchronized (readers) {
-            readers.remove(this);
-        }
+        readers.remove(this);
     }
 }
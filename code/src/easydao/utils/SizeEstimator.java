@@ -0,0 +1,181 @@
+package easydao.utils;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * 对象占用内存的估算
+ * 按64位JVM开启压缩指针估算：对象头12字节，引用4字节，按8字节对齐。
+ * 只估算缓存中常见的对象：字符串、数值、日期、数组、集合、实现{@link Sized}的对象，其他对象按公共字段浅层估算。
+ *
+ * @author ryu
+ */
+public class SizeEstimator {
+
+    /**
+     * 能估算自身大小的对象
+     */
+    public interface Sized {
+        /**
+         * 估算的字节数，包括引用的对象
+         * @return
+         */
+        long estimateSize();
+    }
+
+    public static final int HEADER = 12;
+    public static final int ARRAY_HEADER = 16;
+    public static final int REFERENCE = 4;
+
+    /**
+     * 判断字符串编码时检查的字符数
+     */
+    private static final int LATIN1_SAMPLE = 32;
+
+    private static final ClassValue<Field[]> instanceFields = new ClassValue<>() {
+        @Override
+        protected Field[] computeValue(Class<?> type) {
+            var result = new ArrayList<Field>();
+            for (var f : type.getFields()) {
+                if (!Modifier.isStatic(f.getModifiers())) {
+                    result.add(f);
+                }
+            }
+            return result.toArray(new Field[0]);
+        }
+    };
+
+    private SizeEstimator() {
+    }
+
+    /**
+     * 按8字节对齐
+     */
+    public static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    /**
+     * 估算对象的字节数
+     * @param value
+     * @return
+     */
+    public static long estimate(Object value) {
+        return estimate(value, 2);
+    }
+
+    private static long estimate(Object value, int depth) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof Sized) {
+            return ((Sized) value).estimateSize();
+        }
+        if (value instanceof String) {
+            var text = (String) value;
+            return align(HEADER + 12) + align(ARRAY_HEADER + (long) text.length() * (isLatin1(text) ? 1 : 2));
+        }
+        if (value instanceof Integer || value instanceof Float || value instanceof Short
+                || value instanceof Byte || value instanceof Character || value instanceof Boolean) {
+            return 16;
+        }
+        if (value instanceof Long || value instanceof Double || value instanceof Date) {
+            return 24;
+        }
+        if (value instanceof BigDecimal) {
+            return 40 + estimate(((BigDecimal) value).unscaledValue(), depth);
+        }
+        if (value instanceof BigInteger) {
+            return align(HEADER + 20) + align(ARRAY_HEADER + ((BigInteger) value).bitLength() / 8 + 4);
+        }
+
+        var type = value.getClass();
+        if (type.isArray()) {
+            var component = type.getComponentType();
+            var length = java.lang.reflect.Array.getLength(value);
+            if (component.isPrimitive()) {
+                return align(ARRAY_HEADER + (long) length * primitiveSize(component));
+            }
+            long result = align(ARRAY_HEADER + (long) length * REFERENCE);
+            if (depth > 0) {
+                for (var item : (Object[]) value) {
+                    result += estimate(item, depth - 1);
+                }
+            }
+            return result;
+        }
+        if (value instanceof Collection) {
+            var items = (Collection<?>) value;
+            long result = align(HEADER + 16) + align(ARRAY_HEADER + (long) items.size() * REFERENCE);
+            if (depth > 0) {
+                for (var item : items) {
+                    result += estimate(item, depth - 1);
+                }
+            }
+            return result;
+        }
+        if (value instanceof Map) {
+            var map = (Map<?, ?>) value;
+            long result = align(HEADER + 36) + align(ARRAY_HEADER + (long) map.size() * REFERENCE * 2);
+            result += 32L * map.size();
+            if (depth > 0) {
+                for (var entry : map.entrySet()) {
+                    result += estimate(entry.getKey(), depth - 1) + estimate(entry.getValue(), depth - 1);
+                }
+            }
+            return result;
+        }
+
+        //实体对象：公共字段。数组、集合、实体引用的对象都只估算有限层数
+        var fields = instanceFields.get(type);
+        long result = HEADER;
+        for (var f : fields) {
+            var fieldType = f.getType();
+            if (fieldType.isPrimitive()) {
+                result += primitiveSize(fieldType);
+                continue;
+            }
+            result += REFERENCE;
+            if (depth > 0) {
+                try {
+                    result += estimate(f.get(value), depth - 1);
+                } catch (IllegalAccessException ex) {
+                    //ignore
+                }
+            }
+        }
+        return align(result);
+    }
+
+    /**
+     * 只检查开头的字符判断字符串是否按每字符1字节存储，不遍历整个字符串
+     */
+    private static boolean isLatin1(String text) {
+        var length = Math.min(text.length(), LATIN1_SAMPLE);
+        for (var i = 0; i < length; i++) {
+            if (text.charAt(i) > 0xFF) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int primitiveSize(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        }
+        if (type == int.class || type == float.class) {
+            return 4;
+        }
+        if (type == short.class || type == char.class) {
+            return 2;
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,773 @@
+package easydao.utils;
+
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * sql模板
+ * sql中大括号内是javascript风格的表达式，{{和}}分别表示大括号本身。
+ * 支持字符串、数字、变量、成员访问、方法调用、算术、比较、逻辑和三元运算。
+ * 模板只编译一次，渲染时直接计算编译好的表达式，不需要脚本引擎。
+ *
+ * <pre>
+ * select * from student where {v0!=''?'id in (' + v0 + ')':'1=1'}
+ * </pre>
+ *
+ * @author ryu
+ */
+public class SqlTemplate {
+
+    /**
+     * 缓存的最大数量，超过后清空缓存
+     */
+    static final int MAX_CACHED_TEMPLATES = 10000;
+
+    private static final ConcurrentHashMap<String, SqlTemplate> templates = new ConcurrentHashMap<>();
+
+    /**
+     * 编译后的表达式
+     */
+    @FunctionalInterface
+    private interface Expression {
+        Object invoke(Func1<String, Object> scope) throws Exception;
+    }
+
+    private final ArrayList<Expression> parts = new ArrayList<>();
+    private final LinkedHashSet<String> names = new LinkedHashSet<>();
+
+    /**
+     * sql是否是模板
+     * @param sql
+     * @return
+     */
+    public static boolean isTemplate(String sql) {
+        return sql.indexOf('{') != -1;
+    }
+
+    /**
+     * 获取sql的编译结果，已编译的模板直接从缓存返回。
+     * @param sql
+     * @return
+     */
+    public static SqlTemplate compile(String sql) {
+        var result = templates.get(sql);
+        if (result != null) {
+            return result;
+        }
+
+        result = new SqlTemplate(sql);
+        if (templates.size() >= MAX_CACHED_TEMPLATES) {
+            templates.clear();
+        }
+        templates.put(sql, result);
+        return result;
+    }
+
+    /**
+     * 模板中引用的变量名
+     * @return
+     */
+    public String[] getNames() {
+        return names.toArray(new String[0]);
+    }
+
+    /**
+     * 渲染模板
+     * @param args 变量值
+     * @return
+     * @throws Exception
+     */
+    public String render(Map<String, Object> args) throws Exception {
+        return render(name -> {
+            if (!args.containsKey(name)) {
+                throw new IllegalArgumentException("sql模板中的变量没有定义：" + name);
+            }
+            return args.get(name);
+        });
+    }
+
+    /**
+     * 渲染模板，变量在表达式实际用到时才取值
+     * @param scope 根据变量名取值，变量没有定义时抛出异常
+     * @return
+     * @throws Exception
+     */
+    public String render(Func1<String, Object> scope) throws Exception {
+        var result = new StringBuilder();
+        for (var part : parts) {
+            result.append(toString(part.invoke(scope)));
+        }
+        return result.toString();
+    }
+
+    private SqlTemplate(String sql) {
+        var text = new StringBuilder();
+        var length = sql.length();
+        for (var i = 0; i < length; i++) {
+            var c = sql.charAt(i);
+            if ((c == '{' || c == '}') && i + 1 < length && sql.charAt(i + 1) == c) {
+                text.append(c);
+                i++;
+                continue;
+            }
+
+            if (c != '{') {
+                text.append(c);
+                continue;
+            }
+
+            //表达式到不在字符串中的}结束
+            var end = i + 1;
+            char quote = 0;
+            for (; end < length; end++) {
+                var e = sql.charAt(end);
+                if (quote != 0) {
+                    if (e == '\\') {
+                        end++;
+                    } else if (e == quote) {
+                        quote = 0;
+                    }
+                } else if (e == '\'' || e == '"') {
+                    quote = e;
+                } else if (e == '}') {
+                    break;
+                }
+            }
+            if (end >= length) {
+                throw new IllegalArgumentException("sql模板缺少}：" + sql);
+            }
+
+            if (text.length() > 0) {
+                var literal = text.toString();
+                parts.add(scope -> literal);
+                text.setLength(0);
+            }
+            parts.add(new Parser(sql.substring(i + 1, end)).parse());
+            i = end;
+        }
+
+        if (text.length() > 0) {
+            var literal = text.toString();
+            parts.add(scope -> literal);
+        }
+    }
+
+    //region 运算
+
+    static String toString(Object value) {
+        if (value instanceof Double || value instanceof Float) {
+            var d = ((Number) value).doubleValue();
+            if (d == Math.rint(d) && !Double.isInfinite(d) && Math.abs(d) < 1e15) {
+                return String.valueOf((long) d);
+            }
+        }
+        return String.valueOf(value);
+    }
+
+    static boolean isTrue(Object value) {
+        if (value == null) {
+            return false;
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        if (value instanceof Number) {
+            var d = ((Number) value).doubleValue();
+            return d != 0 && !Double.isNaN(d);
+        }
+        if (value instanceof CharSequence) {
+            return ((CharSequence) value).length() > 0;
+        }
+        return true;
+    }
+
+    private static boolean isIntegral(Object value) {
+        return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte;
+    }
+
+    static double toNumber(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value ? 1 : 0;
+        }
+        var text = value.toString().trim();
+        if (text.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException ex) {
+            return Double.NaN;
+        }
+    }
+
+    static Object add(Object a, Object b) {
+        if (a instanceof CharSequence || b instanceof CharSequence
+                || !(a == null || a instanceof Number || a instanceof Boolean)
+                || !(b == null || b instanceof Number || b instanceof Boolean)) {
+            return toString(a) + toString(b);
+        }
+        if (isIntegral(a) && isIntegral(b)) {
+            return ((Number) a).longValue() + ((Number) b).longValue();
+        }
+        return toNumber(a) + toNumber(b);
+    }
+
+    static boolean looseEquals(Object a, Object b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        if (a instanceof CharSequence && b instanceof CharSequence) {
+            return a.toString().equals(b.toString());
+        }
+        if (a instanceof Number || b instanceof Number || a instanceof Boolean || b instanceof Boolean) {
+            return toNumber(a) == toNumber(b);
+        }
+        return a.equals(b);
+    }
+
+    static boolean strictEquals(Object a, Object b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        if (a instanceof Number && b instanceof Number) {
+            return toNumber(a) == toNumber(b);
+        }
+        if (a instanceof CharSequence && b instanceof CharSequence) {
+            return a.toString().equals(b.toString());
+        }
+        return a.equals(b);
+    }
+
+    static int compare(Object a, Object b) {
+        if (a instanceof CharSequence && b instanceof CharSequence) {
+            return a.toString().compareTo(b.toString());
+        }
+        return Double.compare(toNumber(a), toNumber(b));
+    }
+
+    static Object member(Object target, String name) throws Exception {
+        if (target == null) {
+            throw new NullPointerException("sql模板中不能读取null的成员：" + name);
+        }
+        if (name.equals("length")) {
+            if (target instanceof CharSequence) {
+                return ((CharSequence) target).length();
+            }
+            if (target.getClass().isArray()) {
+                return Array.getLength(target);
+            }
+            if (target instanceof Collection) {
+                return ((Collection<?>) target).size();
+            }
+        }
+        if (target instanceof Map) {
+            return ((Map<?, ?>) target).get(name);
+        }
+        return FXUtils.getMember(target, name);
+    }
+
+    static Object index(Object target, Object index) throws Exception {
+        if (target == null) {
+            throw new NullPointerException("sql模板中不能读取null的元素");
+        }
+        if (target instanceof Map) {
+            return ((Map<?, ?>) target).get(index);
+        }
+        var i = (int) toNumber(index);
+        if (target.getClass().isArray()) {
+            return Array.get(target, i);
+        }
+        if (target instanceof java.util.List) {
+            return ((java.util.List<?>) target).get(i);
+        }
+        if (target instanceof CharSequence) {
+            return String.valueOf(((CharSequence) target).charAt(i));
+        }
+        return member(target, toString(index));
+    }
+
+    /**
+     * 每个类型按"方法名/参数个数"缓存可以调用的公共方法
+     */
+    private static final ClassValue<ConcurrentHashMap<String, Method[]>> methods = new ClassValue<>() {
+        @Override
+        protected ConcurrentHashMap<String, Method[]> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    /**
+     * 方法调用点：记住上次接收者的类型和找到的方法，类型不变时直接调用。
+     */
+    static final class CallSite {
+        /**
+         * 接收者类型和可以调用的方法，创建后不再修改，多线程共享时整体替换
+         */
+        private static final class Target {
+            final Class<?> type;
+            final Method[] methods;
+
+            Target(Class<?> type, Method[] methods) {
+                this.type = type;
+                this.methods = methods;
+            }
+        }
+
+        private final String name;
+        private final int arity;
+        private Target last = null;
+
+        CallSite(String name, int arity) {
+            this.name = name;
+            this.arity = arity;
+        }
+
+        Object invoke(Object target, Object[] args) throws Exception {
+            if (target == null) {
+                throw new NullPointerException("sql模板中不能调用null的方法：" + name);
+            }
+            var type = target.getClass();
+            var last = this.last;
+            if (last == null || last.type != type) {
+                last = new Target(type, findMethods(type, name, arity));
+                this.last = last;
+            }
+            if (last.methods.length == 0) {
+                throw new NoSuchMethodException("sql模板中调用的方法不存在：" + type.getSimpleName() + "." + name);
+            }
+
+            var found = last.methods[0];
+            if (last.methods.length > 1) {
+                for (var m : last.methods) {
+                    if (matches(m, args)) {
+                        found = m;
+                        break;
+                    }
+                }
+            }
+            var types = found.getParameterTypes();
+            var values = new Object[args.length];
+            for (var i = 0; i < args.length; i++) {
+                values[i] = types[i] == Object.class ? toJava(args[i]) : FXUtils.changeType(args[i], types[i]);
+            }
+            try {
+                return found.invoke(target, values);
+            } catch (InvocationTargetException ex) {
+                var cause = ex.getCause();
+                throw cause instanceof Exception ? (Exception) cause : ex;
+            }
+        }
+    }
+
+    /**
+     * 传给Object参数的整数值按Integer传递，与脚本引擎的行为相同
+     */
+    private static Object toJava(Object value) {
+        if (value instanceof Long || value instanceof Double) {
+            var d = ((Number) value).doubleValue();
+            if (d == Math.rint(d) && d >= Integer.MIN_VALUE && d <= Integer.MAX_VALUE) {
+                return (int) d;
+            }
+        }
+        return value;
+    }
+
+    private static boolean matches(Method m, Object[] args) {
+        var types = m.getParameterTypes();
+        for (var i = 0; i < args.length; i++) {
+            var match = args[i] == null ? !types[i].isPrimitive() : MethodType.methodType(types[i]).wrap().returnType().isInstance(args[i]);
+            if (!match) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 查找类型上可以调用的实例方法。
+     * 非公共类型（比如List.of()返回的JDK内部实现）的方法通过声明它的公共接口或父类调用，不使用setAccessible。
+     */
+    private static Method[] findMethods(Class<?> type, String name, int arity) {
+        var byName = methods.get(type);
+        var key = name + "/" + arity;
+        var result = byName.get(key);
+        if (result != null) {
+            return result;
+        }
+
+        var found = new ArrayList<Method>();
+        for (var m : type.getMethods()) {
+            if (m.getName().equals(name) && m.getParameterCount() == arity && !Modifier.isStatic(m.getModifiers())) {
+                var accessible = findAccessible(type, m);
+                if (accessible != null && !found.contains(accessible)) {
+                    found.add(accessible);
+                }
+            }
+        }
+        result = found.toArray(new Method[0]);
+        byName.put(key, result);
+        return result;
+    }
+
+    private static Method findAccessible(Class<?> type, Method m) {
+        if (isAccessible(m.getDeclaringClass())) {
+            return m;
+        }
+        var pending = new ArrayList<Class<?>>();
+        pending.add(type);
+        for (var i = 0; i < pending.size(); i++) {
+            var c = pending.get(i);
+            if (isAccessible(c)) {
+                try {
+                    var result = c.getMethod(m.getName(), m.getParameterTypes());
+                    if (isAccessible(result.getDeclaringClass())) {
+                        return result;
+                    }
+                } catch (NoSuchMethodException ex) {
+                    //ignore
+                }
+            }
+            if (c.getSuperclass() != null) {
+                pending.add(c.getSuperclass());
+            }
+            pending.addAll(Arrays.asList(c.getInterfaces()));
+        }
+        return null;
+    }
+
+    private static boolean isAccessible(Class<?> type) {
+        for (var c = type; c != null; c = c.getEnclosingClass()) {
+            if (!Modifier.isPublic(c.getModifiers())) {
+                return false;
+            }
+        }
+        return type.getModule().isExported(type.getPackageName());
+    }
+
+    //endregion
+
+    //region 表达式解析
+
+    private class Parser {
+
+        private final String text;
+        private int pos = 0;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        Expression parse() {
+            var result = ternary();
+            skipSpace();
+            if (pos < text.length()) {
+                throw error("无法识别的内容");
+            }
+            return result;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(String.format("sql模板表达式错误（%s）：{%s}，位置%d", message, text, pos));
+        }
+
+        private void skipSpace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private boolean peek(String token) {
+            skipSpace();
+            return text.startsWith(token, pos);
+        }
+
+        private boolean accept(String token) {
+            if (peek(token)) {
+                pos += token.length();
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String token) {
+            if (!accept(token)) {
+                throw error("缺少" + token);
+            }
+        }
+
+        private Expression ternary() {
+            var condition = or();
+            if (!accept("?")) {
+                return condition;
+            }
+            var whenTrue = ternary();
+            expect(":");
+            var whenFalse = ternary();
+            return scope -> isTrue(condition.invoke(scope)) ? whenTrue.invoke(scope) : whenFalse.invoke(scope);
+        }
+
+        private Expression or() {
+            var left = and();
+            while (accept("||")) {
+                var l = left;
+                var right = and();
+                left = scope -> {
+                    var value = l.invoke(scope);
+                    return isTrue(value) ? value : right.invoke(scope);
+                };
+            }
+            return left;
+        }
+
+        private Expression and() {
+            var left = equality();
+            while (accept("&&")) {
+                var l = left;
+                var right = equality();
+                left = scope -> {
+                    var value = l.invoke(scope);
+                    return isTrue(value) ? right.invoke(scope) : value;
+                };
+            }
+            return left;
+        }
+
+        private Expression equality() {
+            var left = relational();
+            while (true) {
+                var l = left;
+                if (accept("===")) {
+                    var right = relational();
+                    left = scope -> strictEquals(l.invoke(scope), right.invoke(scope));
+                } else if (accept("!==")) {
+                    var right = relational();
+                    left = scope -> !strictEquals(l.invoke(scope), right.invoke(scope));
+                } else if (accept("==")) {
+                    var right = relational();
+                    left = scope -> looseEquals(l.invoke(scope), right.invoke(scope));
+                } else if (accept("!=")) {
+                    var right = relational();
+                    left = scope -> !looseEquals(l.invoke(scope), right.invoke(scope));
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        private Expression relational() {
+            var left = additive();
+            while (true) {
+                var l = left;
+                if (accept("<=")) {
+                    var right = additive();
+                    left = scope -> compare(l.invoke(scope), right.invoke(scope)) <= 0;
+                } else if (accept(">=")) {
+                    var right = additive();
+                    left = scope -> compare(l.invoke(scope), right.invoke(scope)) >= 0;
+                } else if (accept("<")) {
+                    var right = additive();
+                    left = scope -> compare(l.invoke(scope), right.invoke(scope)) < 0;
+                } else if (accept(">")) {
+                    var right = additive();
+                    left = scope -> compare(l.invoke(scope), right.invoke(scope)) > 0;
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        private Expression additive() {
+            var left = multiplicative();
+            while (true) {
+                var l = left;
+                if (accept("+")) {
+                    var right = multiplicative();
+                    left = scope -> add(l.invoke(scope), right.invoke(scope));
+                } else if (accept("-")) {
+                    var right = multiplicative();
+                    left = scope -> toNumber(l.invoke(scope)) - toNumber(right.invoke(scope));
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        private Expression multiplicative() {
+            var left = unary();
+            while (true) {
+                var l = left;
+                if (accept("*")) {
+                    var right = unary();
+                    left = scope -> toNumber(l.invoke(scope)) * toNumber(right.invoke(scope));
+                } else if (accept("/")) {
+                    var right = unary();
+                    left = scope -> toNumber(l.invoke(scope)) / toNumber(right.invoke(scope));
+                } else if (accept("%")) {
+                    var right = unary();
+                    left = scope -> toNumber(l.invoke(scope)) % toNumber(right.invoke(scope));
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        private Expression unary() {
+            if (accept("!")) {
+                var operand = unary();
+                return scope -> !isTrue(operand.invoke(scope));
+            }
+            if (accept("-")) {
+                var operand = unary();
+                return scope -> -toNumber(operand.invoke(scope));
+            }
+            if (accept("+")) {
+                var operand = unary();
+                return scope -> toNumber(operand.invoke(scope));
+            }
+            return postfix();
+        }
+
+        private Expression postfix() {
+            var target = primary();
+            while (true) {
+                var t = target;
+                if (accept(".")) {
+                    var name = identifier();
+                    if (accept("(")) {
+                        var args = arguments();
+                        var site = new CallSite(name, args.size());
+                        target = scope -> {
+                            var values = new Object[args.size()];
+                            for (var i = 0; i < values.length; i++) {
+                                values[i] = args.get(i).invoke(scope);
+                            }
+                            return site.invoke(t.invoke(scope), values);
+                        };
+                    } else {
+                        target = scope -> member(t.invoke(scope), name);
+                    }
+                } else if (accept("[")) {
+                    var index = ternary();
+                    expect("]");
+                    target = scope -> index(t.invoke(scope), index.invoke(scope));
+                } else {
+                    return target;
+                }
+            }
+        }
+
+        private ArrayList<Expression> arguments() {
+            var args = new ArrayList<Expression>();
+            if (accept(")")) {
+                return args;
+            }
+            do {
+                args.add(ternary());
+            } while (accept(","));
+            expect(")");
+            return args;
+        }
+
+        private String identifier() {
+            skipSpace();
+            var start = pos;
+            while (pos < text.length() && (Character.isLetterOrDigit(text.charAt(pos)) || text.charAt(pos) == '_' || text.charAt(pos) == '$')) {
+                pos++;
+            }
+            if (start == pos || Character.isDigit(text.charAt(start))) {
+                throw error("缺少名称");
+            }
+            return text.substring(start, pos);
+        }
+
+        private Expression primary() {
+            skipSpace();
+            if (pos >= text.length()) {
+                throw error("表达式不完整");
+            }
+
+            var c = text.charAt(pos);
+            if (accept("(")) {
+                var result = ternary();
+                expect(")");
+                return result;
+            }
+
+            if (c == '\'' || c == '"') {
+                var value = string(c);
+                return scope -> value;
+            }
+
+            if (Character.isDigit(c) || (c == '.' && pos + 1 < text.length() && Character.isDigit(text.charAt(pos + 1)))) {
+                var start = pos;
+                while (pos < text.length() && (Character.isDigit(text.charAt(pos)) || text.charAt(pos) == '.')) {
+                    pos++;
+                }
+                var number = text.substring(start, pos);
+                Object value = number.contains(".") ? (Object) Double.parseDouble(number) : (Object) Long.parseLong(number);
+                return scope -> value;
+            }
+
+            var name = identifier();
+            switch (name) {
+                case "true":
+                    return scope -> true;
+                case "false":
+                    return scope -> false;
+                case "null":
+                case "undefined":
+                    return scope -> null;
+            }
+            names.add(name);
+            return scope -> scope.invoke(name);
+        }
+
+        private String string(char quote) {
+            var result = new StringBuilder();
+            pos++;
+            while (pos < text.length()) {
+                var c = text.charAt(pos++);
+                if (c == quote) {
+                    return result.toString();
+                }
+                if (c != '\\' || pos >= text.length()) {
+                    result.append(c);
+                    continue;
+                }
+                var e = text.charAt(pos++);
+                switch (e) {
+                    case 'n':
+                        result.append('\n');
+                        break;
+                    case 't':
+                        result.append('\t');
+                        break;
+                    case 'r':
+                        result.append('\r');
+                        break;
+                    default:
+                        result.append(e);
+                        break;
+                }
+            }
+            throw error("字符串缺少结束引号");
+        }
+    }
+
+    //endregion
+}
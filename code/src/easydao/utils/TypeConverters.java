@@ -0,0 +1,191 @@
+package easydao.utils;
+
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 类型转换器注册表
+ * 按(源类型, 目标类型)查找转换函数，查找结果（包括无法转换）缓存，同样的类型组合只查找一次。
+ * 查找顺序：注册的转换器、不需要转换、valueOf函数、toString、构造函数。
+ *
+ * @author ryu
+ */
+public class TypeConverters {
+
+    /**
+     * 不需要转换
+     */
+    private static final Func1<Object, Object> IDENTITY = v -> v;
+
+    /**
+     * 无法转换
+     */
+    private static final Func1<Object, Object> NONE = v -> {
+        throw new IllegalStateException();
+    };
+
+    private static final ConcurrentHashMap<Class<?>, ConcurrentHashMap<Class<?>, Func1<Object, Object>>> registered = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Class<?>, ConcurrentHashMap<Class<?>, Func1<Object, Object>>> resolved = new ConcurrentHashMap<>();
+
+    static {
+        put(Timestamp.class, Date.class, v -> new Date(v.getTime()));
+        put(java.sql.Date.class, Date.class, v -> new Date(v.getTime()));
+        put(Integer.class, BigInteger.class, v -> BigInteger.valueOf(v));
+        put(Long.class, BigInteger.class, v -> BigInteger.valueOf(v));
+
+        //数值类型之间的转换，和java的强制类型转换一样截断小数和溢出的位
+        Class<?>[] numbers = {Byte.class, Short.class, Integer.class, Long.class, Float.class, Double.class, BigDecimal.class, BigInteger.class};
+        for (var source : numbers) {
+            putNumber(source, Byte.class, Number::byteValue);
+            putNumber(source, Short.class, Number::shortValue);
+            putNumber(source, Integer.class, Number::intValue);
+            putNumber(source, Long.class, Number::longValue);
+            putNumber(source, Float.class, Number::floatValue);
+            putNumber(source, Double.class, Number::doubleValue);
+        }
+        put(BigDecimal.class, BigInteger.class, BigDecimal::toBigInteger);
+        put(BigInteger.class, BigDecimal.class, BigDecimal::new);
+        put(Long.class, BigDecimal.class, v -> BigDecimal.valueOf(v));
+        put(Integer.class, BigDecimal.class, v -> BigDecimal.valueOf(v));
+        put(Double.class, BigDecimal.class, v -> BigDecimal.valueOf(v));
+    }
+
+    private TypeConverters() {
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <S> void put(Class<S> source, Class<?> target, Func1<S, ?> converter) {
+        registered.computeIfAbsent(source, k -> new ConcurrentHashMap<>()).put(target, (Func1<Object, Object>) converter);
+    }
+
+    private static void putNumber(Class<?> source, Class<?> target, Func1<Number, Object> converter) {
+        if (source != target) {
+            registered.computeIfAbsent(source, k -> new ConcurrentHashMap<>()).putIfAbsent(target, v -> converter.invoke((Number) v));
+        }
+    }
+
+    /**
+     * 注册转换器，替换已有的同类型转换器
+     * @param source 源类型
+     * @param target 目标类型，基本类型和包装类型使用同一个转换器
+     * @param converter 转换函数
+     */
+    @SuppressWarnings("unchecked")
+    public static <S, T> void register(Class<S> source, Class<T> target, Func1<S, T> converter) {
+        registered.computeIfAbsent(wrap(source), k -> new ConcurrentHashMap<>()).put(wrap(target), (Func1<Object, Object>) converter);
+        resolved.clear();
+    }
+
+    /**
+     * 获取转换器
+     * @param source 源类型
+     * @param target 目标类型
+     * @return 转换函数，无法转换返回null
+     */
+    public static Func1<Object, Object> get(Class<?> source, Class<?> target) {
+        var byTarget = resolved.get(source);
+        if (byTarget == null) {
+            byTarget = resolved.computeIfAbsent(source, k -> new ConcurrentHashMap<>());
+        }
+        var result = byTarget.get(target);
+        if (result == null) {
+            result = resolve(source, target);
+            byTarget.put(target, result);
+        }
+        return result == NONE ? null : result;
+    }
+
+    /**
+     * 转换类型
+     * @param src 源对象
+     * @param type 目标类型
+     * @return
+     * @throws Exception 无法转换
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T convert(Object src, Class<T> type) throws Exception {
+        if (src == null) {
+            return null;
+        }
+        var converter = get(src.getClass(), type);
+        if (converter == null) {
+            throw new Exception("尚未支持的类型转换" + src.getClass().getSimpleName() + "到" + type.getSimpleName());
+        }
+        return (T) converter.invoke(src);
+    }
+
+    private static Class<?> wrap(Class<?> type) {
+        return type.isPrimitive() ? MethodType.methodType(type).wrap().returnType() : type;
+    }
+
+    private static Func1<Object, Object> resolve(Class<?> source, Class<?> target) {
+        var boxedSource = wrap(source);
+        var boxedTarget = wrap(target);
+
+        if (target == Object.class || boxedSource == boxedTarget) {
+            return IDENTITY;
+        }
+
+        var byTarget = registered.get(boxedSource);
+        var converter = byTarget != null ? byTarget.get(boxedTarget) : null;
+        if (converter != null) {
+            return converter;
+        }
+
+        if (boxedTarget.isAssignableFrom(boxedSource)) {
+            return IDENTITY;
+        }
+
+        //valueOf函数
+        var valueOf = findValueOf(boxedTarget, source, boxedSource);
+        if (valueOf != null) {
+            return v -> invoke(() -> valueOf.invoke(null, v));
+        }
+
+        if (target == String.class) {
+            return Object::toString;
+        }
+
+        //构造函数
+        try {
+            Constructor<?> constructor = target.getConstructor(source);
+            return v -> invoke(() -> constructor.newInstance(v));
+        } catch (NoSuchMethodException ex) {
+            //ignore
+        }
+
+        return NONE;
+    }
+
+    private static Method findValueOf(Class<?> target, Class<?> source, Class<?> boxedSource) {
+        var primitiveSource = MethodType.methodType(boxedSource).unwrap().returnType();
+        for (var parameter : new Class<?>[]{primitiveSource, source}) {
+            try {
+                var method = target.getMethod("valueOf", parameter);
+                if (Modifier.isStatic(method.getModifiers())) {
+                    return method;
+                }
+            } catch (NoSuchMethodException ex) {
+                //ignore
+            }
+        }
+        return null;
+    }
+
+    private static Object invoke(Func<Object> func) throws Exception {
+        try {
+            return func.invoke();
+        } catch (InvocationTargetException ex) {
+            var cause = ex.getCause();
+            throw cause instanceof Exception ? (Exception) cause : ex;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package easydao;
+
+import java.util.Arrays;
+
+/**
+ * sql词法和参数翻译的用例检查
+ * 覆盖各数据库语法的字符串、引号标识符和注释写法，检查?参数名是否被正确识别。
+ * <pre>
+ * javac -encoding UTF-8 -d out $(find code/src code/test -name '*.java')
+ * java -cp out easydao.SqlLexerCheck
+ * </pre>
+ * 有用例失败时打印失败的用例并以状态1退出。
+ *
+ * @author ryu
+ */
+public class SqlLexerCheck {
+
+    private static int failed = 0;
+    private static int passed = 0;
+
+    /**
+     * 检查翻译结果
+     * @param mysql 是否使用MySQL语法
+     * @param source 包含?参数名的sql
+     * @param sql 期望的jdbc sql
+     * @param names 期望的参数名
+     */
+    private static void check(boolean mysql, String source, String sql, String... names) {
+        var plan = SqlPlan.parse(source, mysql);
+        if (plan.sql.equals(sql) && Arrays.equals(plan.names, names)) {
+            passed++;
+            return;
+        }
+        failed++;
+        System.out.printf("FAIL [%s] %s%n  期望：%s %s%n  实际：%s %s%n",
+                mysql ? "MySQL" : "SQLServer", source, sql, Arrays.toString(names), plan.sql, Arrays.toString(plan.names));
+    }
+
+    private static void both(String source, String sql, String... names) {
+        check(false, source, sql, names);
+        check(true, source, sql, names);
+    }
+
+    public static void main(String[] args) {
+        //参数
+        both("select * from t where a=?a and b=?b", "select * from t where a=? and b=?", "a", "b");
+        both("select * from t where a in (?v1,?v10,?v1)", "select * from t where a in (?,?,?)", "v1", "v10");
+        both("select ?a_1+?a", "select ?+?", "a_1", "a");
+        both("select * from t where a=? and b=?b", "select * from t where a=? and b=?", "b");
+        both("select 1", "select 1");
+        both("", "");
+
+        //字符串
+        both("select '?x', ?b", "select '?x', ?", "b");
+        both("select 'it''s ?x', ?b", "select 'it''s ?x', ?", "b");
+        both("select N'?x', ?b", "select N'?x', ?", "b");
+        both("select '?x", "select '?x");
+        check(false, "select \"?x\", ?b", "select \"?x\", ?", "b");
+        check(true, "select \"a\"\"?x\", ?b", "select \"a\"\"?x\", ?", "b");
+
+        //反斜杠：MySQL转义，其他数据库是普通字符
+        check(true, "select 'a\\'?x', ?b", "select 'a\\'?x', ?", "b");
+        check(false, "select 'a\\'?x', ?b", "select 'a\\'?', ?b", "x");
+        check(true, "select \"a\\\"?x\", ?b", "select \"a\\\"?x\", ?", "b");
+
+        //引号标识符
+        both("select `?x` from t where a=?b", "select `?x` from t where a=?", "b");
+        check(false, "select [col?x] from t where a=?b", "select [col?x] from t where a=?", "b");
+        check(false, "select [a]]?x] from t where a=?b", "select [a]]?x] from t where a=?", "b");
+        check(true, "select a[?i] from t", "select a[?] from t", "i");
+
+        //行注释
+        both("select 1 -- ?x\nwhere a=?b", "select 1 -- ?x\nwhere a=?", "b");
+        both("select 1 -- ?x", "select 1 -- ?x");
+        check(false, "select 1--?x\n, ?b", "select 1--?x\n, ?", "b");
+        check(true, "select 1--?x\n, ?b", "select 1--?\n, ?", "x", "b");
+        check(true, "select 1 # ?x\n, ?b", "select 1 # ?x\n, ?", "b");
+        check(false, "select * from #tmp where a=?b", "select * from #tmp where a=?", "b");
+
+        //块注释
+        both("select /* ?x */ ?b", "select /* ?x */ ?", "b");
+        both("select /* ?x */ ?b /* ?y", "select /* ?x */ ? /* ?y", "b");
+        check(false, "select /* a /* ?x */ ?y */ ?b", "select /* a /* ?x */ ?y */ ?", "b");
+        check(true, "select /* a /* ?x */ ?y */ ?b", "select /* a /* ?x */ ? */ ?", "y", "b");
+        both("select /*/ ?x */ ?b", "select /*/ ?x */ ?", "b");
+
+        //没有参数时直接使用原字符串
+        var source = new String("select * from t where a='?x'");
+        if (SqlPlan.parse(source, false).sql != source) {
+            failed++;
+            System.out.println("FAIL 没有参数的sql应该直接使用原字符串");
+        } else {
+            passed++;
+        }
+
+        System.out.printf("%d passed, %d failed%n", passed, failed);
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+}
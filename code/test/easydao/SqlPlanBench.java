@@ -0,0 +1,91 @@
+package easydao;
+
+import java.util.ArrayList;
+import java.util.regex.Pattern;
+
+/**
+ * sql参数翻译的耗时对比
+ * 对比原来按参数名查找替换的翻译方式、SqlPlan.parse单次扫描和SqlPlan.compile缓存命中的每次耗时。
+ * <pre>
+ * javac -encoding UTF-8 -d out $(find code/src code/test -name '*.java')
+ * java -cp out easydao.SqlPlanBench
+ * </pre>
+ * 只是简单的计时，结果受JIT和机器负载影响，用于观察数量级。
+ *
+ * @author ryu
+ */
+public class SqlPlanBench {
+
+    private static final String[] corpus = {
+            "select * from student where id = ?id",
+            "select s.id, s.name, c.name className from student s join class c on s.classId = c.id where c.id = ?classId and s.name like ?name order by s.id",
+            "insert into student (id, name, classId, birthday, remark) values(?v0, ?v1, ?v2, ?v3, ?v4)",
+            "update student set name=?v0, classId=?v1, birthday=?v2, remark=?v3, v10=?v10 where id=?v4",
+            "select * from log where message like '%?x%' /* ?y */ and time > ?from and time < ?to -- ?z\n and level in (?l1, ?l2, ?l3, ?l4, ?l5, ?l6, ?l7, ?l8, ?l9, ?l10, ?l11)",
+    };
+
+    private static final Pattern name = Pattern.compile("\\?(\\w+)");
+
+    /**
+     * 原来的翻译方式：参数名按长度倒序，逐个查找位置并替换为?加空格，最后按位置排序。
+     */
+    static String legacyTranslate(String sql, String[] names) {
+        var sorted = names.clone();
+        java.util.Arrays.sort(sorted, (a, b) -> b.length() - a.length());
+        var positions = new ArrayList<Integer>();
+        for (var n : sorted) {
+            var varName = "?" + n;
+            var pos = -1;
+            while ((pos = sql.indexOf(varName, pos + 1)) != -1) {
+                positions.add(pos);
+            }
+            sql = sql.replace(varName, "?" + " ".repeat(varName.length() - 1));
+        }
+        positions.sort((a, b) -> a - b);
+        return sql;
+    }
+
+    private static String[] names(String sql) {
+        var result = new ArrayList<String>();
+        var m = name.matcher(sql);
+        while (m.find()) {
+            if (!result.contains(m.group(1))) {
+                result.add(m.group(1));
+            }
+        }
+        return result.toArray(new String[0]);
+    }
+
+    private interface Body {
+        int run(int i);
+    }
+
+    private static void time(String title, int iterations, Body body) {
+        var sink = 0;
+        for (var i = 0; i < iterations; i++) {
+            sink += body.run(i);
+        }
+        var start = System.nanoTime();
+        for (var i = 0; i < iterations; i++) {
+            sink += body.run(i);
+        }
+        var ns = (System.nanoTime() - start) / (double) iterations;
+        System.out.printf("%-32s %10.1f ns/op  (%d)%n", title, ns, sink & 1);
+    }
+
+    public static void main(String[] args) {
+        var iterations = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        var names = new String[corpus.length][];
+        for (var i = 0; i < corpus.length; i++) {
+            names[i] = names(corpus[i]);
+        }
+
+        time("原翻译方式（已知参数名）", iterations, i -> legacyTranslate(corpus[i % corpus.length], names[i % corpus.length]).length());
+        time("原翻译方式（含正则提取参数名）", iterations, i -> {
+            var sql = corpus[i % corpus.length];
+            return legacyTranslate(sql, names(sql)).length();
+        });
+        time("SqlPlan.parse", iterations, i -> SqlPlan.parse(corpus[i % corpus.length], false).sql.length());
+        time("SqlPlan.compile（缓存）", iterations, i -> SqlPlan.compile(corpus[i % corpus.length], false).sql.length());
+    }
+}